@@ -2,24 +2,62 @@ package fi.helsinki.cs.tmc.langs;
 
 import fi.helsinki.cs.tmc.langs.domain.Configuration;
 import fi.helsinki.cs.tmc.langs.domain.ExerciseBuilder;
+import fi.helsinki.cs.tmc.langs.domain.ExerciseDesc;
+import fi.helsinki.cs.tmc.langs.domain.RunResult;
+import fi.helsinki.cs.tmc.langs.io.ExerciseFinder;
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.io.sandbox.SubmissionProcessor;
 import fi.helsinki.cs.tmc.langs.io.zip.Unzipper;
 import fi.helsinki.cs.tmc.langs.io.zip.Zipper;
 import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
 
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
-import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 public abstract class AbstractLanguagePlugin implements LanguagePlugin {
 
     private static final Logger log = Logger.getLogger(AbstractLanguagePlugin.class.getName());
 
+    /**
+     * Runs the short continuations of asynchronous operations, such as parsing results once a
+     * child process has exited. Shared by all plugins.
+     */
+    private static final ListeningExecutorService executor = MoreExecutors.listeningDecorator(
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("tmc-langs-plugin-%d")
+                            .build()));
+
+    /**
+     * Runs synchronous operations that may block for a long time, such as a whole Ant or Maven
+     * test run, so that they cannot starve the continuations on {@link #executor}. Threads are
+     * created as needed and exit when idle; the callers limit how many runs there are at once.
+     */
+    private static final ListeningExecutorService blockingExecutor =
+            MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("tmc-langs-plugin-blocking-%d")
+                            .build()));
+
     private final ExerciseBuilder exerciseBuilder;
     private final SubmissionProcessor submissionProcessor;
     private final Zipper zipper;
@@ -61,20 +99,84 @@ public abstract class AbstractLanguagePlugin implements LanguagePlugin {
 
     @Override
     public void prepareSubmission(Path submissionPath, Path destPath) {
-        submissionProcessor.setStudentFilePolicy(getStudentFilePolicy(destPath));
-        submissionProcessor.moveFiles(submissionPath, destPath);
+        submissionProcessor.withStudentFilePolicy(getStudentFilePolicy(destPath))
+                .moveFiles(submissionPath, destPath);
     }
 
     @Override
     public void extractProject(Path compressedProject, Path targetLocation) throws IOException {
-        unzipper.setStudentFilePolicy(getStudentFilePolicy(targetLocation));
-        unzipper.unzip(compressedProject, targetLocation);
+        unzipper.withStudentFilePolicy(getStudentFilePolicy(targetLocation))
+                .unzip(compressedProject, targetLocation);
+    }
+
+    @Override
+    public void extractProject(byte[] compressedProject, Path targetLocation)
+            throws IOException {
+        unzipper.withStudentFilePolicy(getStudentFilePolicy(targetLocation))
+                .unzip(compressedProject, targetLocation);
+    }
+
+    @Override
+    public void extractProject(SeekableByteChannel compressedProject, Path targetLocation)
+            throws IOException {
+        unzipper.withStudentFilePolicy(getStudentFilePolicy(targetLocation))
+                .unzip(compressedProject, targetLocation);
+    }
+
+    @Override
+    public void extractProject(InputStream compressedProject, Path targetLocation)
+            throws IOException {
+        unzipper.withStudentFilePolicy(getStudentFilePolicy(targetLocation))
+                .unzip(compressedProject, targetLocation);
     }
 
     @Override
     public byte[] compressProject(Path project) throws IOException {
-        zipper.setStudentFilePolicy(getStudentFilePolicy(project));
-        return zipper.zip(project);
+        return zipper.withStudentFilePolicy(getStudentFilePolicy(project)).zip(project);
+    }
+
+    @Override
+    public void compressProject(Path project, OutputStream output) throws IOException {
+        zipper.withStudentFilePolicy(getStudentFilePolicy(project)).zip(project, output);
+    }
+
+    /**
+     * Runs {@link #scanExercise(Path, String)} on a thread of its own. Plugins that scan
+     * exercises by running child processes should override this.
+     */
+    @Override
+    public ListenableFuture<Optional<ExerciseDesc>> scanExerciseAsync(final Path path,
+                                                                      final String exerciseName) {
+        return blockingExecutor.submit(new Callable<Optional<ExerciseDesc>>() {
+            @Override
+            public Optional<ExerciseDesc> call() {
+                return scanExercise(path, exerciseName);
+            }
+        });
+    }
+
+    /**
+     * Runs {@link #runTests(Path)} on a thread of its own. Plugins that run tests in child
+     * processes should override this.
+     */
+    @Override
+    public ListenableFuture<RunResult> runTestsAsync(final Path path) {
+        return blockingExecutor.submit(new Callable<RunResult>() {
+            @Override
+            public RunResult call() {
+                return runTests(path);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<byte[]> compressProjectAsync(final Path project) {
+        return blockingExecutor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return compressProject(project);
+            }
+        });
     }
 
     @Override
@@ -87,58 +189,63 @@ public abstract class AbstractLanguagePlugin implements LanguagePlugin {
         exerciseBuilder.prepareSolution(path);
     }
 
+    @Override
+    public void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget)
+            throws IOException {
+        exerciseBuilder.prepareStubAndSolution(path, stubTarget, solutionTarget);
+    }
+
+    @Override
+    public void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget,
+                                       Path manifestFile) throws IOException {
+        exerciseBuilder.prepareStubAndSolution(path, stubTarget, solutionTarget, manifestFile);
+    }
+
     /**
+     * Searches the given directory and its subdirectories for exercises. Directories inside an
+     * exercise are not searched any further.
+     *
      * @param basePath The file path to search in.
-     * @return A list of directories that contain a build file in this language.
+     * @return A sorted list of directories that contain a build file in this language.
      */
     @Override
     public ImmutableList<Path> findExercises(Path basePath) {
-        File searchPath = basePath.toFile();
-        ImmutableList.Builder<Path> listBuilder = new ImmutableList.Builder<>();
-        if (searchPath.exists() && searchPath.isDirectory()) {
-            return searchForExercises(searchPath, listBuilder);
-        } else {
-            return listBuilder.build();
-        }
+        return new ExerciseFinder(new Predicate<Path>() {
+            @Override
+            public boolean apply(Path path) {
+                return isExerciseTypeCorrect(path);
+            }
+        }).find(basePath);
     }
 
     /**
-     * Reads and parses the configuration file of the project.
-     * @return The configuration as an object.
+     * Returns the executor shared by all plugins for running short continuations. Work that
+     * blocks for long, like waiting for a process, must not be run on it.
      */
-    protected Configuration getConfiguration(Path projectRoot) {
-        Path configPath = projectRoot.resolve(".tmcproject.yml");
-        return new Configuration(configPath);
+    protected ListeningExecutorService getExecutor() {
+        return executor;
     }
 
     /**
-     * Search a directory and its subdirectories for build files. If a directory
-     * contains a build file, the directory is added to the list.
-     *
-     * @param file The current file path to search in
-     * @param listBuilder a listBuilder the found exercises should be appended to
-     * @return a list of all directories that contain build files for this language.
+     * Waits for the result of an asynchronous operation, rethrowing unchecked exceptions
+     * thrown by the operation as they are.
      */
-    private ImmutableList<Path> searchForExercises(File file,
-                                                   ImmutableList.Builder<Path> listBuilder) {
-        Stack<File> stack = new Stack<>();
-        // Push the initial directory onto the stack.
-        stack.push(file);
-        // Walk the directories that get added onto the stack.
-        while (!stack.isEmpty()) {
-            File current = stack.pop();
-            if (current.isDirectory()) {
-                // See if current directory contains a build file.
-                if (isExerciseTypeCorrect(current.toPath())) {
-                    listBuilder.add(current.toPath());
-                }
-                for (File temp : current.listFiles()) {
-                    if (temp.isDirectory()) {
-                        stack.push(temp);
-                    }
-                }
-            }
+    protected static <V> V getResult(ListenableFuture<V> future) {
+        try {
+            return Futures.getUnchecked(future);
+        } catch (UncheckedExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw e;
         }
-        return listBuilder.build();
+    }
+
+    /**
+     * Returns the configuration of the project. The configuration file is only parsed again
+     * if it has changed since it was last read.
+     * @return The configuration as an object.
+     */
+    protected Configuration getConfiguration(Path projectRoot) {
+        Path configPath = projectRoot.resolve(".tmcproject.yml");
+        return Configuration.load(configPath);
     }
 }
@@ -6,8 +6,12 @@ import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 
 /**
@@ -68,6 +72,23 @@ public interface LanguagePlugin {
      */
     RunResult runTests(Path path);
 
+    /**
+     * Produces an exercise description of an exercise directory without blocking the caller.
+     *
+     * @see #scanExercise(Path, String)
+     */
+    ListenableFuture<Optional<ExerciseDesc>> scanExerciseAsync(Path path, String exerciseName);
+
+    /**
+     * Runs the tests for the exercise without blocking the caller.
+     *
+     * <p>Plugins that run their tests in child processes complete the future when the processes
+     * exit, so no thread is occupied while the tests are running.
+     *
+     * @see #runTests(Path)
+     */
+    ListenableFuture<RunResult> runTestsAsync(Path path);
+
     /**
      * Prepares a submission for processing in the sandbox.
      *
@@ -108,6 +129,29 @@ public interface LanguagePlugin {
      */
     void prepareSolution(Path path);
 
+    /**
+     * Prepares both a stub and a solution from the original exercise, reading the original
+     * only once.
+     *
+     * @param path A path to the original exercise. It is not modified.
+     * @param stubTarget The directory the stub is written to.
+     * @param solutionTarget The directory the solution is written to.
+     * @see #prepareStub(Path)
+     * @see #prepareSolution(Path)
+     */
+    void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget)
+            throws IOException;
+
+    /**
+     * Prepares both a stub and a solution from the original exercise, only processing the
+     * files that changed since the previous call with the same manifest file.
+     *
+     * @param manifestFile The file where the hashes of the processed files are kept.
+     * @see #prepareStubAndSolution(Path, Path, Path)
+     */
+    void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget,
+                                Path manifestFile) throws IOException;
+
     /**
      * Run checkstyle or similar plugin to project if applicable
      *
@@ -125,6 +169,24 @@ public interface LanguagePlugin {
      */
     byte[] compressProject(Path path) throws IOException;
 
+    /**
+     * Compress a given project, writing the archive to <tt>output</tt> as it is being built.
+     *
+     * <p>Unlike {@link #compressProject(Path)} this does not hold the archive in memory, so
+     * large projects can be streamed directly to a file or a socket. The stream is not closed.
+     *
+     * @param path Path to the root of the project.
+     * @param output The stream the compressed project is written to.
+     */
+    void compressProject(Path path, OutputStream output) throws IOException;
+
+    /**
+     * Compresses a given project without blocking the caller.
+     *
+     * @see #compressProject(Path)
+     */
+    ListenableFuture<byte[]> compressProjectAsync(Path path);
+
     /**
      * Extract a given archive file containing a compressed project to a target location.
      *
@@ -136,6 +198,31 @@ public interface LanguagePlugin {
      */
     void extractProject(Path compressedProject, Path targetLocation) throws IOException;
 
+    /**
+     * Extract a compressed project held in memory, such as a submission received over the
+     * network, without writing the archive to disk first.
+     *
+     * @see #extractProject(Path, Path)
+     */
+    void extractProject(byte[] compressedProject, Path targetLocation) throws IOException;
+
+    /**
+     * Extract a compressed project read from a channel. The channel is closed afterwards.
+     *
+     * @see #extractProject(Path, Path)
+     */
+    void extractProject(SeekableByteChannel compressedProject, Path targetLocation)
+            throws IOException;
+
+    /**
+     * Extract a compressed project read from a stream. The archive is buffered in memory, as
+     * zip entries can only be located once the end of the archive has been read. The stream is
+     * not closed.
+     *
+     * @see #extractProject(Path, Path)
+     */
+    void extractProject(InputStream compressedProject, Path targetLocation) throws IOException;
+
     /**
      * Tells if there's a valid exercise in this path.
      * @param path The path to the exercise directory.
@@ -0,0 +1,129 @@
+package fi.helsinki.cs.tmc.langs.domain;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The content hashes of the original exercise files that stubs and solutions were last
+ * generated from, keyed by their path relative to the exercise, and the files that have no stub
+ * because they are solution files.
+ *
+ * <p>Stored as JSON. A missing, unreadable or incompatible manifest is treated as empty, which
+ * makes every file be generated again.
+ */
+final class BuildManifest {
+
+    private static final Logger log = LoggerFactory.getLogger(BuildManifest.class);
+
+    /**
+     * Bumped whenever the stub or solution transformation changes, so that outputs generated by
+     * an older version are regenerated.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private final Map<String, String> hashes;
+    private final Set<String> withoutStub;
+
+    private BuildManifest(Map<String, String> hashes, Set<String> withoutStub) {
+        this.hashes = new ConcurrentHashMap<>(hashes);
+        this.withoutStub = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.withoutStub.addAll(withoutStub);
+    }
+
+    static BuildManifest empty() {
+        return new BuildManifest(new HashMap<String, String>(), new HashSet<String>());
+    }
+
+    static BuildManifest load(Path file) {
+        if (!Files.exists(file)) {
+            return empty();
+        }
+
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            ManifestFile stored = new Gson().fromJson(reader, ManifestFile.class);
+            if (stored != null && stored.version == FORMAT_VERSION && stored.files != null
+                    && stored.withoutStub != null) {
+                return new BuildManifest(stored.files, stored.withoutStub);
+            }
+            log.info("Discarding incompatible build manifest {}", file);
+        } catch (IOException | JsonParseException e) {
+            log.warn("Unable to read build manifest {}, rebuilding", file, e);
+        }
+        return empty();
+    }
+
+    /**
+     * Returns the recorded hash of the file, or null if there is none.
+     */
+    String get(String relativePath) {
+        return hashes.get(relativePath);
+    }
+
+    /**
+     * Returns whether the file was recorded to have a stub. Files that are not recorded have
+     * one.
+     */
+    boolean hasStub(String relativePath) {
+        return !withoutStub.contains(relativePath);
+    }
+
+    void put(String relativePath, String hash, boolean hasStub) {
+        if (hasStub) {
+            withoutStub.remove(relativePath);
+        } else {
+            withoutStub.add(relativePath);
+        }
+        hashes.put(relativePath, hash);
+    }
+
+    void remove(String relativePath) {
+        hashes.remove(relativePath);
+        withoutStub.remove(relativePath);
+    }
+
+    Iterable<String> paths() {
+        return hashes.keySet();
+    }
+
+    void save(Path file) throws IOException {
+        ManifestFile stored = new ManifestFile();
+        stored.version = FORMAT_VERSION;
+        stored.files = hashes;
+        stored.withoutStub = withoutStub;
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                new Gson().toJson(stored, writer);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static final class ManifestFile {
+        int version;
+        Map<String, String> files;
+        Set<String> withoutStub;
+    }
+}
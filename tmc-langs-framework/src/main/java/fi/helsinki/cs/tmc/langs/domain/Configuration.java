@@ -3,20 +3,121 @@ package fi.helsinki.cs.tmc.langs.domain;
 import fi.helsinki.cs.tmc.langs.utils.ConfigurationParser;
 import fi.helsinki.cs.tmc.langs.utils.TmcProjectYmlParser;
 
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * The options of a project, as read from its <tt>.tmcproject.yml</tt>.
+ *
+ * <p>{@link #load(Path)} parses each configuration file once and shares the result within the
+ * process until the size or modification time of the file changes. The shared configurations
+ * are immutable; only the instances created with the constructors can be changed, through the
+ * deprecated {@link #parseOptions(Path)}.
+ */
 public final class Configuration {
 
-    private Map<String, ValueObject> options;
+    private static final Logger log = LoggerFactory.getLogger(Configuration.class);
+
+    private static final String EXTRA_STUDENT_FILES = "extra_student_files";
+
+    private static final Configuration EMPTY =
+            new Configuration(ImmutableMap.<String, ValueObject>of(), true);
+
+    private static final Cache<Path, CachedConfiguration> cache =
+            CacheBuilder.newBuilder().maximumSize(1000).build();
+
+    private ImmutableMap<String, ValueObject> options;
+    private ImmutableList<String> extraStudentFiles;
+    private final boolean shared;
 
     public Configuration() {
-        options = new HashMap<>();
+        this(ImmutableMap.<String, ValueObject>of(), false);
     }
 
+    /**
+     * Creates a configuration from the given file. The file is parsed at most once per change,
+     * see {@link #load(Path)}.
+     *
+     * @param path Absolute path to configuration, e.g. .tmcproject.yml -file.
+     */
     public Configuration(Path path) {
-        parseOptions(path);
+        this.shared = false;
+        copyFrom(load(path));
+    }
+
+    private Configuration(Map<String, ValueObject> options, boolean shared) {
+        this.options = ImmutableMap.copyOf(options);
+        this.extraStudentFiles = parseExtraStudentFiles(this.options.get(EXTRA_STUDENT_FILES));
+        this.shared = shared;
+    }
+
+    /**
+     * Returns the configuration in the given file.
+     *
+     * <p>The parsed configuration is cached by the path of the file, and reused as long as the
+     * size and modification time of the file stay the same. A missing or unreadable file gives
+     * an empty configuration.
+     *
+     * @param path Path to the configuration file, e.g. .tmcproject.yml -file.
+     */
+    public static Configuration load(Path path) {
+        Path file = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            cache.invalidate(file);
+            return EMPTY;
+        }
+        if (!attributes.isRegularFile()) {
+            return EMPTY;
+        }
+
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+        CachedConfiguration cached = cache.getIfPresent(file);
+        if (cached != null && cached.modified == modified && cached.size == size) {
+            return cached.configuration;
+        }
+
+        log.debug("Parsing configuration {}", file);
+        ConfigurationParser parser = new TmcProjectYmlParser();
+        Configuration configuration = new Configuration(parser.parseOptions(file), true);
+        cache.put(file, new CachedConfiguration(modified, size, configuration));
+        return configuration;
+    }
+
+    /**
+     * Replaces the options of this configuration with those in the given file.
+     *
+     * @param path Absolute path to configuration, e.g. .tmcproject.yml -file.
+     * @throws IllegalStateException if this configuration was returned by {@link #load(Path)},
+     *     as those are shared.
+     * @deprecated Use {@link #load(Path)}, which returns a cached configuration instead of
+     *     parsing the file again.
+     */
+    @Deprecated
+    public void parseOptions(Path path) {
+        Preconditions.checkState(!shared, "Shared configurations cannot be changed");
+        copyFrom(load(path));
+    }
+
+    private void copyFrom(Configuration loaded) {
+        this.options = loaded.options;
+        this.extraStudentFiles = loaded.extraStudentFiles;
     }
 
     public boolean isSet(String config) {
@@ -37,12 +138,40 @@ public final class Configuration {
     }
 
     /**
-     * Parse options from the path.
-     *
-     * @param path Absolute path to configuration, e.g. .tmcproject.yml -file.
+     * Returns the <tt>extra_student_files</tt> of the project, relative to the project root.
      */
-    public void parseOptions(Path path) {
-        ConfigurationParser parser = new TmcProjectYmlParser();
-        options = parser.parseOptions(path);
+    public ImmutableList<String> getExtraStudentFiles() {
+        return extraStudentFiles;
+    }
+
+    private static ImmutableList<String> parseExtraStudentFiles(ValueObject value) {
+        if (value == null) {
+            return ImmutableList.of();
+        }
+
+        ImmutableList.Builder<String> files = ImmutableList.builder();
+        if (value.get() instanceof String) {
+            files.add((String) value.get());
+        } else if (value.get() instanceof List) {
+            for (Object file : (List<?>) value.get()) {
+                if (file instanceof String) {
+                    files.add((String) file);
+                }
+            }
+        }
+        return files.build();
+    }
+
+    private static final class CachedConfiguration {
+
+        private final long modified;
+        private final long size;
+        private final Configuration configuration;
+
+        CachedConfiguration(long modified, long size, Configuration configuration) {
+            this.modified = modified;
+            this.size = size;
+            this.configuration = configuration;
+        }
     }
 }
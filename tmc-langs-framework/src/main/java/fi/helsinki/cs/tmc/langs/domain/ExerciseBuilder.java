@@ -1,27 +1,62 @@
 package fi.helsinki.cs.tmc.langs.domain;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ExerciseBuilder {
 
-    private final static String BEGIN_SOLUTION_TAG = "// BEGIN SOLUTION";
-    private final static String END_SOLUTION_TAG = "// END SOLUTION";
-    private final static String STUB_TAG = "// STUB:";
-    private final static String SOLUTION_FILE_TAG = "// SOLUTION FILE";
     private final static String SOURCE_FOLDER_NAME = "src";
     private final static Charset CHARSET = StandardCharsets.UTF_8;
 
+    /**
+     * How much of a file is checked for NUL bytes to tell binary files from text, like git does.
+     */
+    private final static int BINARY_CHECK_LENGTH = 8000;
+
     private static final Logger logger = LoggerFactory.getLogger(ExerciseBuilder.class);
 
+    private enum Mode {
+        STUB, SOLUTION
+    }
+
+    /**
+     * The outcome of transforming a single file.
+     */
+    private enum Result {
+        /** The file has no markers or is binary, nothing was written. */
+        UNCHANGED,
+        /** The filtered file was written to the target. */
+        TRANSFORMED,
+        /** The file is a solution file that does not belong in the stub. */
+        REMOVED
+    }
+
     /**
      * Prepares a stub exercise from the original.
      *
@@ -32,33 +67,131 @@ public class ExerciseBuilder {
         List<Path> projectFiles = getFileList(projectRoot);
 
         for (Path projectFile : projectFiles) {
-            prepareStubFile(projectFile);
+            prepareFile(projectFile, Mode.STUB);
         }
     }
 
-    private void prepareStubFile(Path file) {
-        try {
-            List<String> lines = Files.readAllLines(file, CHARSET);
-            List<String> filteredLines = new ArrayList<>();
-            boolean skipLine = false;
-            for (String line : lines) {
-                if (line.contains(SOLUTION_FILE_TAG)) {
-                    Files.deleteIfExists(file);
-                    return;
-                }
-                if (line.contains(BEGIN_SOLUTION_TAG)) {
-                    skipLine = true;
-                } else if (skipLine && line.contains(END_SOLUTION_TAG)) {
-                    skipLine = false;
-                } else if (line.contains(STUB_TAG)) {
-                    String start = line.substring(0, line.indexOf(STUB_TAG) - 1);
-                    String end = line.substring(line.indexOf(STUB_TAG) + STUB_TAG.length());
-                    filteredLines.add(start + end);
-                } else if (!skipLine) {
-                    filteredLines.add(line);
+    /**
+     * Prepares a presentable solution from the original.
+     *
+     * <p>Implements LanguagePlugin.prepareSolution
+     */
+    public void prepareSolution(Path path) {
+        Path projectRoot = path.resolve(SOURCE_FOLDER_NAME);
+        List<Path> projectFiles = getFileList(projectRoot);
+
+        for (Path projectFile : projectFiles) {
+            prepareFile(projectFile, Mode.SOLUTION);
+        }
+    }
+
+    /**
+     * Prepares both a stub and a solution from the original exercise in one pass.
+     *
+     * <p>The original exercise is left as is. Its files are copied to <tt>stubTarget</tt> and
+     * <tt>solutionTarget</tt>, and each source file is read once and filtered into both targets
+     * at the same time. Files are processed in parallel on all available processors. Both
+     * targets must be outside the exercise directory.
+     */
+    public void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget)
+            throws IOException {
+        prepareStubAndSolution(path, stubTarget, solutionTarget, BuildManifest.empty());
+    }
+
+    /**
+     * Prepares both a stub and a solution like {@link #prepareStubAndSolution(Path, Path, Path)},
+     * but only for the files that changed since the previous call with the same manifest.
+     *
+     * <p>The manifest records a content hash of every file of the original exercise. A file is
+     * only copied or transformed again if its hash differs from the recorded one or any of its
+     * outputs is missing, and the outputs of files that no longer exist in the original are deleted.
+     * The manifest should be kept next to the targets rather than inside them.
+     */
+    public void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget,
+                                       Path manifestFile) throws IOException {
+        BuildManifest manifest = BuildManifest.load(manifestFile);
+        prepareStubAndSolution(path, stubTarget, solutionTarget, manifest);
+        manifest.save(manifestFile);
+    }
+
+    private void prepareStubAndSolution(Path path,
+                                        Path stubTarget,
+                                        Path solutionTarget,
+                                        final BuildManifest manifest) throws IOException {
+        final Path sourceRoot = path.resolve(SOURCE_FOLDER_NAME);
+        Set<String> vanished = Sets.newHashSet(manifest.paths());
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final Path file : getFileList(path)) {
+            final String relativePath = path.relativize(file).toString().replace('\\', '/');
+            final Path stubFile = stubTarget.resolve(relativePath);
+            final Path solutionFile = solutionTarget.resolve(relativePath);
+            vanished.remove(relativePath);
+            Files.createDirectories(stubFile.getParent());
+            Files.createDirectories(solutionFile.getParent());
+
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    String hash = com.google.common.io.Files.asByteSource(file.toFile())
+                            .hash(Hashing.sha256())
+                            .toString();
+                    if (hash.equals(manifest.get(relativePath))
+                            && Files.exists(solutionFile)
+                            && (Files.exists(stubFile) || !manifest.hasStub(relativePath))) {
+                        logger.trace("{} is unchanged, skipping", file);
+                        return null;
+                    }
+
+                    boolean hasStub = true;
+                    if (file.startsWith(sourceRoot)) {
+                        hasStub = prepareFile(file, stubFile, solutionFile);
+                    } else {
+                        Files.copy(file, stubFile, StandardCopyOption.REPLACE_EXISTING);
+                        Files.copy(file, solutionFile, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    manifest.put(relativePath, hash, hasStub);
+                    return null;
                 }
+            });
+        }
+
+        for (String relativePath : vanished) {
+            logger.debug("{} no longer exists, deleting its outputs", relativePath);
+            Files.deleteIfExists(stubTarget.resolve(relativePath));
+            Files.deleteIfExists(solutionTarget.resolve(relativePath));
+            manifest.remove(relativePath);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("tmc-langs-exercise-builder-%d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while preparing " + path, e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void prepareFile(Path file, Mode mode) {
+        try {
+            Output output = new Output(mode, file);
+            transform(file, output);
+            if (output.result == Result.REMOVED) {
+                Files.deleteIfExists(file);
             }
-            Files.write(file, filteredLines, CHARSET);
+        } catch (CharacterCodingException ex) {
+            logger.warn("{} is not a UTF-8 text file, leaving it as is", file);
         } catch (IOException ex) {
             logger.error("Unexpected IOException, preparation of file {} was interrupted",
                     file.toAbsolutePath().toString(),
@@ -66,6 +199,178 @@ public class ExerciseBuilder {
         }
     }
 
+    /**
+     * Writes the stub and the solution of the file, and returns whether it has a stub.
+     */
+    private boolean prepareFile(Path file, Path stubFile, Path solutionFile)
+            throws IOException {
+        Output stub = new Output(Mode.STUB, stubFile);
+        Output solution = new Output(Mode.SOLUTION, solutionFile);
+        try {
+            transform(file, stub, solution);
+        } catch (CharacterCodingException ex) {
+            logger.warn("{} is not a UTF-8 text file, copying it as is", file);
+            stub.result = Result.UNCHANGED;
+            solution.result = Result.UNCHANGED;
+        }
+        for (Output output : Arrays.asList(stub, solution)) {
+            if (output.result == Result.UNCHANGED) {
+                Files.copy(file, output.target, StandardCopyOption.REPLACE_EXISTING);
+            } else if (output.result == Result.REMOVED) {
+                Files.deleteIfExists(output.target);
+            }
+        }
+        return stub.result != Result.REMOVED;
+    }
+
+    /**
+     * Filters <tt>source</tt> line by line into the targets of the outputs, which may include
+     * the source itself. The result of each output is stored in it.
+     *
+     * <p>Only one line is held in memory at a time. Nothing is written to a target until the
+     * first line that its filter changes, at which point the lines before it are copied to a
+     * temporary file that replaces the target once the whole source has been read and closed.
+     * A target is therefore not written at all if the file has no markers.
+     *
+     * <p>Files with a NUL byte near their start are taken to be binary and are not decoded.
+     */
+    private void transform(Path source, Output... outputs) throws IOException {
+        try {
+            filterLines(source, outputs);
+
+            // The source is closed by now: it may be one of the targets, and a file that is
+            // still open cannot be replaced on Windows.
+            for (Output output : outputs) {
+                if (output.result == Result.REMOVED) {
+                    continue;
+                }
+                if (output.writer == null) {
+                    output.result = Result.UNCHANGED;
+                } else {
+                    output.commit();
+                    output.result = Result.TRANSFORMED;
+                }
+            }
+        } finally {
+            for (Output output : outputs) {
+                output.discard();
+            }
+        }
+    }
+
+    private void filterLines(Path source, Output... outputs) throws IOException {
+        try (BufferedInputStream input =
+                     new BufferedInputStream(Files.newInputStream(source), BINARY_CHECK_LENGTH);
+                BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(input, CHARSET.newDecoder()))) {
+            if (isBinary(input)) {
+                logger.debug("{} is a binary file, leaving it as is", source);
+                return;
+            }
+
+            long linesRead = 0;
+            int remaining = outputs.length;
+            String line;
+            while (remaining > 0 && (line = reader.readLine()) != null) {
+                TagMatcher.Match match = TagMatcher.match(line);
+                for (Output output : outputs) {
+                    if (output.result == Result.REMOVED) {
+                        continue;
+                    }
+                    String filtered = output.filter.apply(line, match);
+                    if (output.filter.isSolutionFile()) {
+                        output.discard();
+                        output.result = Result.REMOVED;
+                        remaining--;
+                        continue;
+                    }
+                    if (output.writer == null && !line.equals(filtered)) {
+                        output.open();
+                        copyLines(source, linesRead, output.writer);
+                    }
+                    if (output.writer != null && filtered != null) {
+                        output.writer.write(filtered);
+                        output.writer.newLine();
+                    }
+                }
+                linesRead++;
+            }
+        }
+    }
+
+    /**
+     * Checks the start of the stream for NUL bytes and rewinds it.
+     */
+    private static boolean isBinary(BufferedInputStream input) throws IOException {
+        input.mark(BINARY_CHECK_LENGTH);
+        try {
+            byte[] buffer = new byte[BINARY_CHECK_LENGTH];
+            int length = 0;
+            int read;
+            while (length < buffer.length
+                    && (read = input.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == 0) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            input.reset();
+        }
+    }
+
+    private static void copyLines(Path source, long count, BufferedWriter writer)
+            throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(source, CHARSET)) {
+            for (long i = 0; i < count; i++) {
+                writer.write(reader.readLine());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * A file being written by {@link #transform}.
+     */
+    private static final class Output {
+
+        private final LineFilter filter;
+        private final Path target;
+        private Path temp;
+        private BufferedWriter writer;
+        private Result result;
+
+        Output(Mode mode, Path target) {
+            this.filter = new LineFilter(mode);
+            this.target = target;
+        }
+
+        void open() throws IOException {
+            temp = Files.createTempFile(target.toAbsolutePath().getParent(),
+                    target.getFileName().toString(), ".tmp");
+            writer = Files.newBufferedWriter(temp, CHARSET);
+        }
+
+        void commit() throws IOException {
+            writer.close();
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+        }
+
+        void discard() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+                temp = null;
+            }
+        }
+    }
+
     private List<Path> getFileList(Path folder) {
         if (!folder.toFile().isDirectory()) {
             return new ArrayList<>();
@@ -88,37 +393,54 @@ public class ExerciseBuilder {
     }
 
     /**
-     * Prepares a presentable solution from the original.
-     *
-     * <p>Implements LanguagePlugin.prepareSolution
+     * Filters the lines of one file for a stub or a solution.
      */
-    public void prepareSolution(Path path) {
-        Path projectRoot = path.resolve(SOURCE_FOLDER_NAME);
-        List<Path> projectFiles = getFileList(projectRoot);
+    private static final class LineFilter {
 
-        for (Path projectFile : projectFiles) {
-            prepareSolutionFile(projectFile);
+        private final Mode mode;
+        private boolean skipLine;
+        private boolean solutionFile;
+
+        LineFilter(Mode mode) {
+            this.mode = mode;
         }
-    }
 
-    private void prepareSolutionFile(Path file) {
-        try {
-            List<String> lines = Files.readAllLines(file, CHARSET);
-            List<String> filteredLines = new ArrayList<>();
-            for (String line : lines) {
-                if (line.contains(BEGIN_SOLUTION_TAG)
-                        || line.contains(END_SOLUTION_TAG)
-                        || line.contains(STUB_TAG)
-                        || line.contains(SOLUTION_FILE_TAG)) {
-                    continue;
-                }
-                filteredLines.add(line);
+        /**
+         * Returns the line as it should appear in the output, or null if it is left out.
+         *
+         * @param match The markers on the line.
+         */
+        String apply(String line, TagMatcher.Match match) {
+            if (mode == Mode.SOLUTION) {
+                return match.isEmpty() ? line : null;
             }
-            Files.write(file, filteredLines, CHARSET);
-        } catch (IOException ex) {
-            logger.error("Unexpected IOException, preparation of file {} was interrupted",
-                    file.toAbsolutePath().toString(),
-                    ex);
+
+            if (match.contains(TagMatcher.Tag.SOLUTION_FILE)) {
+                solutionFile = true;
+                return null;
+            }
+            if (match.contains(TagMatcher.Tag.BEGIN_SOLUTION)) {
+                skipLine = true;
+                return null;
+            } else if (skipLine && match.contains(TagMatcher.Tag.END_SOLUTION)) {
+                skipLine = false;
+                return null;
+            } else if (match.contains(TagMatcher.Tag.STUB)) {
+                int stubIndex = match.getStubIndex();
+                String start = line.substring(0, stubIndex - 1);
+                String end = line.substring(stubIndex + TagMatcher.Tag.STUB.getText().length());
+                return start + end;
+            } else if (!skipLine) {
+                return line;
+            }
+            return null;
+        }
+
+        /**
+         * Returns whether the file was marked as a solution file, which is left out of stubs.
+         */
+        boolean isSolutionFile() {
+            return solutionFile;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package fi.helsinki.cs.tmc.langs.domain;
+
+/**
+ * The operating system resources used by a process and its descendants.
+ *
+ * <p>The values are sampled while the process runs, so they are approximate, and usage in the
+ * last moments before the process exits may be missed.
+ */
+public final class ResourceUsage {
+
+    public static final ResourceUsage ZERO = new ResourceUsage(0, 0, 0, 0);
+
+    /**
+     * CPU time spent in user and kernel mode, in milliseconds.
+     */
+    public final long cpuTimeMillis;
+
+    /**
+     * The largest combined resident set size observed, in bytes.
+     */
+    public final long peakRssBytes;
+
+    /**
+     * Bytes read from and written to storage.
+     */
+    public final long readBytes;
+    public final long writtenBytes;
+
+    /**
+     * Creates a new ResourceUsage from the provided measurements.
+     */
+    public ResourceUsage(long cpuTimeMillis, long peakRssBytes, long readBytes,
+                         long writtenBytes) {
+        this.cpuTimeMillis = cpuTimeMillis;
+        this.peakRssBytes = peakRssBytes;
+        this.readBytes = readBytes;
+        this.writtenBytes = writtenBytes;
+    }
+
+    /**
+     * Combines the usage of two runs made one after the other: CPU time and I/O are summed and
+     * the larger peak RSS is kept.
+     */
+    public ResourceUsage plus(ResourceUsage other) {
+        return new ResourceUsage(cpuTimeMillis + other.cpuTimeMillis,
+                Math.max(peakRssBytes, other.peakRssBytes),
+                readBytes + other.readBytes,
+                writtenBytes + other.writtenBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceUsage{cpuTimeMillis=" + cpuTimeMillis
+                + ", peakRssBytes=" + peakRssBytes
+                + ", readBytes=" + readBytes
+                + ", writtenBytes=" + writtenBytes + "}";
+    }
+}
@@ -57,17 +57,42 @@ public final class RunResult {
      */
     public final ImmutableMap<String, byte[]> logs;
 
+    /**
+     * The resources used by the processes that built and ran the tests.
+     *
+     * <p>Null if the language plugin does not measure resource usage.
+     */
+    public final ResourceUsage resourceUsage;
+
     /**
      * Create a new RunResult to represent the results of run of the test suite.
      */
     public RunResult(Status status,
             ImmutableList<TestResult> testResults,
             ImmutableMap<String, byte[]> logs) {
+        this(status, testResults, logs, null);
+    }
+
+    /**
+     * Create a new RunResult that also tells the resources used by the run.
+     */
+    public RunResult(Status status,
+            ImmutableList<TestResult> testResults,
+            ImmutableMap<String, byte[]> logs,
+            ResourceUsage resourceUsage) {
         Preconditions.checkNotNull(status);
         Preconditions.checkNotNull(testResults);
         Preconditions.checkNotNull(logs);
         this.status = status;
         this.testResults = testResults;
         this.logs = logs;
+        this.resourceUsage = resourceUsage;
+    }
+
+    /**
+     * Returns a copy of this result with the given resource usage.
+     */
+    public RunResult withResourceUsage(ResourceUsage resourceUsage) {
+        return new RunResult(status, testResults, logs, resourceUsage);
     }
 }
\ No newline at end of file
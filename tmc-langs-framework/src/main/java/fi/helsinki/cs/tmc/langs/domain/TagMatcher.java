@@ -0,0 +1,87 @@
+package fi.helsinki.cs.tmc.langs.domain;
+
+/**
+ * Finds the exercise markers on a line in a single scan.
+ *
+ * <p>All markers start with the same comment prefix, so the line is only searched for that
+ * prefix, and the markers are compared at each position where it occurs. Lines without the
+ * prefix, which are the vast majority, are rejected with one {@link String#indexOf} call.
+ */
+final class TagMatcher {
+
+    enum Tag {
+        BEGIN_SOLUTION("// BEGIN SOLUTION"),
+        END_SOLUTION("// END SOLUTION"),
+        STUB("// STUB:"),
+        SOLUTION_FILE("// SOLUTION FILE");
+
+        private final String text;
+
+        Tag(String text) {
+            this.text = text;
+        }
+
+        String getText() {
+            return text;
+        }
+    }
+
+    private static final String PREFIX = "// ";
+
+    private static final Tag[] TAGS = Tag.values();
+
+    static final Match NO_MATCH = new Match(0, -1);
+
+    private TagMatcher() {}
+
+    static Match match(String line) {
+        int index = line.indexOf(PREFIX);
+        if (index < 0) {
+            return NO_MATCH;
+        }
+
+        int found = 0;
+        int stubIndex = -1;
+        while (index >= 0) {
+            for (Tag tag : TAGS) {
+                if (line.startsWith(tag.text, index)) {
+                    found |= 1 << tag.ordinal();
+                    if (tag == Tag.STUB && stubIndex < 0) {
+                        stubIndex = index;
+                    }
+                }
+            }
+            index = line.indexOf(PREFIX, index + 1);
+        }
+        return found == 0 ? NO_MATCH : new Match(found, stubIndex);
+    }
+
+    /**
+     * The markers found on a line.
+     */
+    static final class Match {
+
+        private final int tags;
+        private final int stubIndex;
+
+        private Match(int tags, int stubIndex) {
+            this.tags = tags;
+            this.stubIndex = stubIndex;
+        }
+
+        boolean contains(Tag tag) {
+            return (tags & (1 << tag.ordinal())) != 0;
+        }
+
+        boolean isEmpty() {
+            return tags == 0;
+        }
+
+        /**
+         * Returns the position of the first {@link Tag#STUB} on the line, or -1 if there is none.
+         */
+        int getStubIndex() {
+            return stubIndex;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package fi.helsinki.cs.tmc.langs.io;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A {@link StudentFilePolicy} that can decide using file attributes the caller already has.
+ *
+ * <p>Callers that walk a file tree get the attributes of each file for free, and passing them
+ * on saves the policy from querying the file system again for every file.
+ */
+public interface AttributeAwareStudentFilePolicy extends StudentFilePolicy {
+
+    /**
+     * Answers whether the file in <tt>path</tt> is a student file like
+     * {@link #isStudentFile(Path, Path)}, but without accessing the file system for the file.
+     *
+     * @param attributes The attributes of the file, read following symbolic links like
+     *     {@link #isStudentFile(Path, Path)} would, or null if the file does not exist.
+     */
+    boolean isStudentFile(Path path, Path projectRootPath, BasicFileAttributes attributes);
+}
@@ -1,12 +1,12 @@
 package fi.helsinki.cs.tmc.langs.io;
 
-import fi.helsinki.cs.tmc.langs.utils.TmcProjectYmlParser;
+import fi.helsinki.cs.tmc.langs.domain.Configuration;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * An abstract {@link StudentFilePolicy} that also uses
@@ -17,13 +17,13 @@ import java.util.List;
  * {@link ConfigurableStudentFilePolicy#isExtraStudentFile(Path)} or
  * {@link ConfigurableStudentFilePolicy#isStudentSourceFile(Path)} returns {@code True}.
  */
-public abstract class ConfigurableStudentFilePolicy implements StudentFilePolicy {
+public abstract class ConfigurableStudentFilePolicy implements AttributeAwareStudentFilePolicy {
 
     private static final Path CONFIG_PATH = Paths.get(".tmcproject.yml");
 
     private Path configFile;
 
-    private List<Path> extraStudentFiles;
+    private ExtraStudentFileMatcher extraStudentFiles;
     private Path rootPath;
 
     public ConfigurableStudentFilePolicy(Path configFileParent) {
@@ -44,11 +44,23 @@ public abstract class ConfigurableStudentFilePolicy implements StudentFilePolicy
 
     @Override
     public boolean isStudentFile(Path path, Path projectRootPath) {
-        if (!Files.exists(path)) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            attributes = null;
+        }
+        return isStudentFile(path, projectRootPath, attributes);
+    }
+
+    @Override
+    public boolean isStudentFile(Path path, Path projectRootPath,
+                                 BasicFileAttributes attributes) {
+        if (attributes == null) {
             return false;
         }
 
-        if (Files.isDirectory(path)) {
+        if (attributes.isDirectory()) {
             return false;
         }
 
@@ -68,27 +80,18 @@ public abstract class ConfigurableStudentFilePolicy implements StudentFilePolicy
         if (extraStudentFiles == null) {
             loadExtraStudentFileList();
         }
-
-        for (Path extraStudentFile : extraStudentFiles) {
-            if (extraStudentFile.toAbsolutePath().equals(path.toAbsolutePath())) {
-                return true;
-            }
-        }
-        return false;
+        return extraStudentFiles.matches(path);
     }
 
     /**
      * Loads the <tt>ExtraStudentFiles</tt> of the project specified during construction.
      *
      * <p>More specifically, this reads the <tt>.tmcproject.yml</tt> file from the project root
-     * and parses it for the necessary information.
+     * through the shared {@link Configuration} cache, and compiles the entries into a
+     * {@link ExtraStudentFileMatcher}.
      */
     private void loadExtraStudentFileList() {
-        extraStudentFiles = new ArrayList<>();
-
-        if (Files.exists(configFile)) {
-            TmcProjectYmlParser parser = new TmcProjectYmlParser();
-            extraStudentFiles = parser.parseExtraStudentFiles(configFile, rootPath);
-        }
+        extraStudentFiles = new ExtraStudentFileMatcher(rootPath,
+                Configuration.load(configFile).getExtraStudentFiles());
     }
-}
\ No newline at end of file
+}
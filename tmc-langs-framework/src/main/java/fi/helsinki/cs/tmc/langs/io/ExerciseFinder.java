@@ -0,0 +1,110 @@
+package fi.helsinki.cs.tmc.langs.io;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Searches a directory tree for exercise directories.
+ *
+ * <p>Subtrees are walked in parallel on a shared {@link ForkJoinPool}. The search does not
+ * descend into a directory once it has been recognised as an exercise, nor into build output
+ * or version control directories such as <tt>target</tt> or <tt>.git</tt>. Symbolic links to
+ * directories are not followed.
+ *
+ * <p>The returned exercise directories are sorted, so the result does not depend on the order
+ * in which the subtrees happen to finish.
+ */
+public final class ExerciseFinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ExerciseFinder.class);
+
+    /**
+     * Names of directories that never contain exercises and are therefore not searched.
+     */
+    public static final ImmutableSet<String> IGNORED_DIRECTORIES = ImmutableSet.of(
+            ".git", ".hg", ".svn", "target", "node_modules", "__pycache__");
+
+    static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private final Predicate<Path> isExercise;
+
+    /**
+     * Creates a new ExerciseFinder.
+     *
+     * @param isExercise Decides whether a directory is an exercise root.
+     */
+    public ExerciseFinder(Predicate<Path> isExercise) {
+        this.isExercise = isExercise;
+    }
+
+    /**
+     * Finds all exercise directories in <tt>basePath</tt>, including <tt>basePath</tt> itself.
+     *
+     * @return The exercise directories in sorted order. Empty if <tt>basePath</tt> is not a
+     *     directory.
+     */
+    public ImmutableList<Path> find(Path basePath) {
+        if (!Files.isDirectory(basePath)) {
+            return ImmutableList.of();
+        }
+
+        log.debug("Searching for exercises in {}", basePath);
+        List<Path> exercises = POOL.invoke(new SearchTask(basePath));
+        return Ordering.natural().immutableSortedCopy(exercises);
+    }
+
+    private final class SearchTask extends RecursiveTask<List<Path>> {
+
+        private final Path directory;
+
+        SearchTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<Path> compute() {
+            List<Path> exercises = new ArrayList<>();
+            if (isExercise.apply(directory)) {
+                exercises.add(directory);
+                return exercises;
+            }
+
+            List<SearchTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    if (isSearchable(child)) {
+                        subtasks.add(new SearchTask(child));
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Unable to list contents of {}", directory, e);
+                return exercises;
+            }
+
+            for (SearchTask subtask : invokeAll(subtasks)) {
+                exercises.addAll(subtask.join());
+            }
+            return exercises;
+        }
+
+        private boolean isSearchable(Path path) {
+            return Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)
+                    && !IGNORED_DIRECTORIES.contains(path.getFileName().toString());
+        }
+    }
+}
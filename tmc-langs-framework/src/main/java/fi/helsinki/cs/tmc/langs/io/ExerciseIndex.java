@@ -0,0 +1,291 @@
+package fi.helsinki.cs.tmc.langs.io;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A persistent index of the exercises in a course directory.
+ *
+ * <p>The index records every searched directory together with its modification time, its
+ * subdirectories and the exercise type detected in it. On {@link #refresh()} a directory is only
+ * listed and classified again if its own modification time or that of one of its subdirectories
+ * has changed, so refreshing an unchanged tree costs one stat call per directory.
+ *
+ * <p>Like {@link ExerciseFinder}, the index does not search inside exercises or in
+ * {@link ExerciseFinder#IGNORED_DIRECTORIES}.
+ *
+ * <p>The index is stored as JSON in a file given at construction. The file should be outside the
+ * course directory, as writing it would otherwise change the modification time of the course
+ * directory itself. Directories created for it are only accessible by their owner where the
+ * filesystem supports POSIX permissions, and an index file or directory owned by another user is
+ * not trusted and is rebuilt instead.
+ */
+public final class ExerciseIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ExerciseIndex.class);
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final FileAttribute<Set<PosixFilePermission>> OWNER_ONLY =
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+
+    private final Path root;
+    private final Path indexFile;
+    private final Function<Path, Optional<String>> classifier;
+
+    private Map<String, Entry> entries;
+
+    /**
+     * Creates a new ExerciseIndex.
+     *
+     * @param root The course directory to index.
+     * @param indexFile The file the index is persisted to.
+     * @param classifier Returns the exercise type of a directory, or absent if the directory is
+     *     not an exercise.
+     */
+    public ExerciseIndex(Path root, Path indexFile, Function<Path, Optional<String>> classifier) {
+        this.root = root.toAbsolutePath().normalize();
+        this.indexFile = indexFile;
+        this.classifier = classifier;
+    }
+
+    /**
+     * Brings the index up to date with the course directory and persists it.
+     *
+     * @return The exercise directories of the course, sorted, mapped to their exercise type.
+     */
+    public synchronized ImmutableSortedMap<Path, String> refresh() throws IOException {
+        if (entries == null) {
+            entries = load();
+        }
+
+        Map<String, Entry> refreshed = new ConcurrentHashMap<>();
+        if (Files.isDirectory(root)) {
+            ExerciseFinder.POOL.invoke(
+                    new RefreshTask(root, "", modificationTime(root), refreshed));
+        }
+        entries = new HashMap<>(refreshed);
+        save();
+
+        ImmutableSortedMap.Builder<Path, String> exercises = ImmutableSortedMap.naturalOrder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().type != null) {
+                exercises.put(root.resolve(entry.getKey()), entry.getValue().type);
+            }
+        }
+        return exercises.build();
+    }
+
+    private Map<String, Entry> load() {
+        if (!Files.exists(indexFile)) {
+            return new HashMap<>();
+        }
+        if (!isOwnedByCurrentUser(indexFile)
+                || !isOwnedByCurrentUser(indexFile.toAbsolutePath().getParent())) {
+            log.warn("Exercise index {} is owned by another user, rebuilding", indexFile);
+            return new HashMap<>();
+        }
+
+        try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            IndexFile stored = new Gson().fromJson(reader, IndexFile.class);
+            if (stored != null
+                    && stored.version == FORMAT_VERSION
+                    && root.toString().equals(stored.root)
+                    && stored.entries != null) {
+                log.debug("Loaded {} index entries from {}", stored.entries.size(), indexFile);
+                return stored.entries;
+            }
+            log.info("Discarding incompatible exercise index {}", indexFile);
+        } catch (IOException | JsonParseException e) {
+            log.warn("Unable to read exercise index {}, rebuilding", indexFile, e);
+        }
+        return new HashMap<>();
+    }
+
+    private void save() throws IOException {
+        IndexFile stored = new IndexFile();
+        stored.version = FORMAT_VERSION;
+        stored.root = root.toString();
+        stored.entries = entries;
+
+        Path parent = indexFile.toAbsolutePath().getParent();
+        createDirectories(parent);
+        if (!isOwnedByCurrentUser(parent)) {
+            throw new IOException("Refusing to write exercise index to " + parent
+                    + ", which is owned by another user");
+        }
+        Path temp = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                new Gson().toJson(stored, writer);
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void createDirectories(Path directory) throws IOException {
+        if (Files.isDirectory(directory)) {
+            return;
+        }
+        if (Files.getFileAttributeView(directory.getRoot(), PosixFileAttributeView.class)
+                == null) {
+            Files.createDirectories(directory);
+            return;
+        }
+        createDirectories(directory.getParent());
+        try {
+            Files.createDirectory(directory, OWNER_ONLY);
+        } catch (FileAlreadyExistsException e) {
+            // Created concurrently; the ownership check decides whether to use it
+        }
+    }
+
+    /**
+     * Returns whether the file belongs to the user running this process. Files on filesystems
+     * without owners are trusted.
+     */
+    private static boolean isOwnedByCurrentUser(Path file) {
+        try {
+            UserPrincipal user = file.getFileSystem().getUserPrincipalLookupService()
+                    .lookupPrincipalByName(System.getProperty("user.name"));
+            return user.equals(Files.getOwner(file));
+        } catch (UnsupportedOperationException e) {
+            return true;
+        } catch (IOException e) {
+            log.debug("Unable to check the owner of {}", file, e);
+            return false;
+        }
+    }
+
+    private static long modificationTime(Path path) throws IOException {
+        return Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis();
+    }
+
+    private final class RefreshTask extends RecursiveAction {
+
+        private final Path directory;
+        private final String relativePath;
+        private final long modified;
+        private final Map<String, Entry> refreshed;
+
+        RefreshTask(Path directory, String relativePath, long modified,
+                    Map<String, Entry> refreshed) {
+            this.directory = directory;
+            this.relativePath = relativePath;
+            this.modified = modified;
+            this.refreshed = refreshed;
+        }
+
+        @Override
+        protected void compute() {
+            Entry entry = entries.get(relativePath);
+            Map<String, Long> children = null;
+            if (entry != null && entry.modified == modified) {
+                children = currentModificationTimes(entry.children.keySet());
+            }
+
+            if (children == null || !children.equals(entry.children)) {
+                entry = index();
+                if (entry == null) {
+                    return;
+                }
+            }
+            refreshed.put(relativePath, entry);
+
+            if (entry.type != null) {
+                return;
+            }
+
+            List<RefreshTask> subtasks = new ArrayList<>();
+            for (Map.Entry<String, Long> child : entry.children.entrySet()) {
+                String childPath = relativePath.isEmpty()
+                        ? child.getKey()
+                        : relativePath + "/" + child.getKey();
+                subtasks.add(new RefreshTask(directory.resolve(child.getKey()), childPath,
+                        child.getValue(), refreshed));
+            }
+            invokeAll(subtasks);
+        }
+
+        /**
+         * Returns the current modification times of the given subdirectories, or null if any of
+         * them is gone.
+         */
+        private Map<String, Long> currentModificationTimes(Iterable<String> names) {
+            Map<String, Long> times = new HashMap<>();
+            for (String name : names) {
+                try {
+                    times.put(name, modificationTime(directory.resolve(name)));
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+            return times;
+        }
+
+        private Entry index() {
+            log.trace("Indexing {}", directory);
+            Entry entry = new Entry();
+            entry.modified = modified;
+            entry.type = classifier.apply(directory).orNull();
+            entry.children = new HashMap<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    String name = child.getFileName().toString();
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)
+                            && !ExerciseFinder.IGNORED_DIRECTORIES.contains(name)) {
+                        entry.children.put(name, modificationTime(child));
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Unable to list contents of {}", directory, e);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private static final class IndexFile {
+        int version;
+        String root;
+        Map<String, Entry> entries;
+    }
+
+    private static final class Entry {
+        long modified;
+        String type;
+        Map<String, Long> children;
+    }
+}
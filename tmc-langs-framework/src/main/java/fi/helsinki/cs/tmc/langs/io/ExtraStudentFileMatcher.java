@@ -0,0 +1,89 @@
+package fi.helsinki.cs.tmc.langs.io;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+
+/**
+ * Matches paths against the <tt>extra_student_files</tt> of a project.
+ *
+ * <p>Entries take one of three forms:
+ * <ul>
+ * <li>A plain path such as <tt>test/Extra.java</tt> matches exactly that file. It is resolved
+ * against the project root, so an absolute path is taken as is. Characters like <tt>[</tt> and
+ * <tt>{</tt> have no special meaning in it.</li>
+ * <li>A path ending in <tt>/</tt>, such as <tt>data/</tt>, matches every file under that
+ * directory at any depth.</li>
+ * <li>An entry starting with <tt>glob:</tt>, such as <tt>glob:src/**&#47;*.txt</tt>, is a
+ * {@link java.nio.file.FileSystem#getPathMatcher(String) glob} matched against the path relative
+ * to the project root.</li>
+ * </ul>
+ *
+ * <p>Plain and directory entries are normalized into hash sets once, so a lookup costs one set
+ * lookup for the path and each of its parents instead of a comparison against every entry. Globs
+ * are compiled once.
+ */
+final class ExtraStudentFileMatcher {
+
+    private static final String GLOB_PREFIX = "glob:";
+
+    private final Path root;
+    private final ImmutableSet<Path> files;
+    private final ImmutableSet<Path> directories;
+    private final ImmutableList<PathMatcher> globs;
+
+    /**
+     * Creates a new ExtraStudentFileMatcher.
+     *
+     * @param root The project root the entries are relative to.
+     * @param entries The <tt>extra_student_files</tt> entries.
+     */
+    ExtraStudentFileMatcher(Path root, List<String> entries) {
+        this.root = root.toAbsolutePath().normalize();
+
+        ImmutableSet.Builder<Path> files = ImmutableSet.builder();
+        ImmutableSet.Builder<Path> directories = ImmutableSet.builder();
+        ImmutableList.Builder<PathMatcher> globs = ImmutableList.builder();
+        for (String entry : entries) {
+            if (entry.startsWith(GLOB_PREFIX)) {
+                globs.add(FileSystems.getDefault().getPathMatcher(entry));
+            } else if (entry.endsWith("/")) {
+                directories.add(this.root.resolve(entry).normalize());
+            } else {
+                files.add(this.root.resolve(entry).normalize());
+            }
+        }
+        this.files = files.build();
+        this.directories = directories.build();
+        this.globs = globs.build();
+    }
+
+    boolean matches(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        if (files.contains(absolute)) {
+            return true;
+        }
+        if (!directories.isEmpty()) {
+            for (Path parent = absolute.getParent(); parent != null; parent = parent.getParent()) {
+                if (directories.contains(parent)) {
+                    return true;
+                }
+            }
+        }
+
+        if (globs.isEmpty() || !absolute.startsWith(root) || absolute.equals(root)) {
+            return false;
+        }
+        Path relative = root.relativize(absolute);
+        for (PathMatcher glob : globs) {
+            if (glob.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,8 +1,11 @@
 package fi.helsinki.cs.tmc.langs.io.sandbox;
 
+import fi.helsinki.cs.tmc.langs.io.AttributeAwareStudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.io.EverythingIsStudentFileStudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.FileVisitResult;
@@ -10,6 +13,15 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +33,7 @@ public class StudentFileAwareSubmissionProcessor implements SubmissionProcessor
     private static final Logger log =
             Logger.getLogger(StudentFileAwareSubmissionProcessor.class.getName());
     private StudentFilePolicy studentFilePolicy;
+    private boolean parallel;
 
     /**
      * Creates a new SubmissionProcessor that moves all files.
@@ -42,6 +55,26 @@ public class StudentFileAwareSubmissionProcessor implements SubmissionProcessor
         this.studentFilePolicy = studentFilePolicy;
     }
 
+    @Override
+    public SubmissionProcessor withStudentFilePolicy(StudentFilePolicy studentFilePolicy) {
+        StudentFileAwareSubmissionProcessor processor =
+                new StudentFileAwareSubmissionProcessor(studentFilePolicy);
+        processor.parallel = parallel;
+        return processor;
+    }
+
+    /**
+     * Sets whether files are moved in parallel on all available processors.
+     *
+     * <p>In parallel mode the student files are collected first and the directories they go to
+     * are created once, after which the files are moved concurrently. Each file is still moved
+     * with {@link #moveFile(Path, Path, Path)}, which may then be called from several threads at
+     * once.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     /**
      * Moves some of the contents of <tt>source</tt> to <tt>target</tt> based on the decisions
      * of the {@link StudentFilePolicy} that was given when constructing this SubmissionProcessor.
@@ -55,11 +88,16 @@ public class StudentFileAwareSubmissionProcessor implements SubmissionProcessor
      */
     @Override
     public void moveFiles(final Path source, final Path target) {
+        if (parallel) {
+            moveFilesInParallel(source, target);
+            return;
+        }
+
         try {
             Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    if (studentFilePolicy.isStudentFile(file, source)) {
+                    if (isStudentFile(file, source, attrs)) {
                         try {
                             moveFile(source, file, target);
                         } catch (IOException exception) {
@@ -87,6 +125,80 @@ public class StudentFileAwareSubmissionProcessor implements SubmissionProcessor
         }
     }
 
+    private void moveFilesInParallel(final Path source, final Path target) {
+        final List<Path> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (isStudentFile(file, source, attrs)) {
+                        files.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            Set<Path> directories = new TreeSet<>();
+            for (Path file : files) {
+                directories.add(target.resolve(source.relativize(file)).getParent());
+            }
+            for (Path directory : directories) {
+                Files.createDirectories(directory);
+            }
+        } catch (IOException exception) {
+            log.log(Level.WARNING, null, exception);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final Path file : files) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        moveFile(source, file, target);
+                    } catch (IOException exception) {
+                        log.log(Level.WARNING, null, exception);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("tmc-langs-submission-processor-%d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            log.log(Level.WARNING, "Interrupted while moving files to " + target, exception);
+        } catch (ExecutionException exception) {
+            log.log(Level.WARNING, null, exception.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Asks the policy, passing on the attributes from the walk if the policy can use them. The
+     * walk does not follow symbolic links, so for a link the policy is asked without them and
+     * looks at what the link points to.
+     */
+    private boolean isStudentFile(Path file, Path source, BasicFileAttributes attrs) {
+        if (studentFilePolicy instanceof AttributeAwareStudentFilePolicy
+                && !attrs.isSymbolicLink()) {
+            return ((AttributeAwareStudentFilePolicy) studentFilePolicy)
+                    .isStudentFile(file, source, attrs);
+        }
+        return studentFilePolicy.isStudentFile(file, source);
+    }
+
     protected void moveFile(Path sourceRoot, Path sourceFile, Path target) throws IOException {
         Path relative = sourceRoot.relativize(sourceFile);
         Path targetFile = target.resolve(relative);
@@ -8,5 +8,12 @@ public interface SubmissionProcessor {
 
     void setStudentFilePolicy(StudentFilePolicy studentFilePolicy);
 
+    /**
+     * Returns a processor configured like this one that uses the given policy. Unlike
+     * {@link #setStudentFilePolicy(StudentFilePolicy)}, this one is left untouched, so a shared
+     * processor can be used by several threads at once with a policy per call.
+     */
+    SubmissionProcessor withStudentFilePolicy(StudentFilePolicy studentFilePolicy);
+
     void moveFiles(Path source, Path target);
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package fi.helsinki.cs.tmc.langs.io.sandbox;
+
+import fi.helsinki.cs.tmc.langs.io.AttributeAwareStudentFilePolicy;
+import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds a workspace for grading a submission out of an exercise template and the student
+ * files of the submission.
+ *
+ * <p>A hard link shares its content with the template, and the code being graded could write
+ * through it. Template files are therefore only hard linked into the workspace when the grading
+ * process cannot write to them: they must be owned by another user and not be writable by this
+ * one, as when the templates belong to an administrative user and grading runs as an
+ * unprivileged one. Linking such a file costs one directory entry regardless of its size. All
+ * other template files are copied, as are all files when the file system does not support hard
+ * links or the workspace is on a different file system than the template.
+ *
+ * <p>Student files are then copied over from the submission, replacing the template's versions.
+ */
+public final class WorkspaceMaterializer {
+
+    private static final Logger log = Logger.getLogger(WorkspaceMaterializer.class.getName());
+
+    private final StudentFilePolicy studentFilePolicy;
+
+    /**
+     * Creates a new WorkspaceMaterializer.
+     *
+     * @param studentFilePolicy Decides which files of the submission are copied into the
+     *                          workspace.
+     */
+    public WorkspaceMaterializer(StudentFilePolicy studentFilePolicy) {
+        this.studentFilePolicy = studentFilePolicy;
+    }
+
+    /**
+     * Builds a workspace into <tt>workspace</tt> that contains the files of <tt>template</tt>,
+     * with the student files of <tt>submission</tt> in place of the template's versions.
+     *
+     * <p>Anything already in <tt>workspace</tt>, such as the files of an earlier grading, is
+     * deleted first.
+     *
+     * @param template      directory containing the exercise template
+     * @param submission    directory containing the unzipped submission. It is not modified
+     * @param workspace     directory to build the workspace in. Created if it does not exist
+     */
+    public void materialize(Path template, Path submission, Path workspace) throws IOException {
+        if (Files.isDirectory(workspace)) {
+            FileUtils.cleanDirectory(workspace.toFile());
+        }
+        Files.createDirectories(workspace);
+        linkTemplate(template, workspace);
+        copyStudentFiles(submission, workspace);
+    }
+
+    private void linkTemplate(final Path template, final Path workspace) throws IOException {
+        Files.walkFileTree(template, new SimpleFileVisitor<Path>() {
+            private boolean linksSupported = true;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.createDirectories(workspace.resolve(template.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Path target = workspace.resolve(template.relativize(file));
+                Files.deleteIfExists(target);
+                if (linksSupported && attrs.isRegularFile() && isReadOnlyForUs(file)) {
+                    try {
+                        Files.createLink(target, file);
+                        return FileVisitResult.CONTINUE;
+                    } catch (UnsupportedOperationException | FileSystemException e) {
+                        log.log(Level.INFO, "Unable to hard link template files, copying", e);
+                        linksSupported = false;
+                    }
+                }
+                Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Returns whether this process can neither write to the file nor make it writable, which
+     * requires the file to be owned by another user. Files on file systems without owners are
+     * never considered read only.
+     */
+    private static boolean isReadOnlyForUs(Path file) {
+        if (Files.isWritable(file)) {
+            return false;
+        }
+        try {
+            UserPrincipal user = file.getFileSystem().getUserPrincipalLookupService()
+                    .lookupPrincipalByName(System.getProperty("user.name"));
+            return !user.equals(Files.getOwner(file));
+        } catch (UnsupportedOperationException | IOException e) {
+            return false;
+        }
+    }
+
+    private void copyStudentFiles(final Path submission, final Path workspace)
+            throws IOException {
+        Files.walkFileTree(submission, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                if (isStudentFile(file, submission, attrs)) {
+                    Path target = workspace.resolve(submission.relativize(file));
+                    Files.createDirectories(target.getParent());
+                    // REPLACE_EXISTING removes a linked template file before copying instead of
+                    // writing into it.
+                    Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Asks the policy like {@link StudentFileAwareSubmissionProcessor} does, without the
+     * attributes of symbolic links, which the walk does not follow.
+     */
+    private boolean isStudentFile(Path file, Path root, BasicFileAttributes attrs) {
+        if (studentFilePolicy instanceof AttributeAwareStudentFilePolicy
+                && !attrs.isSymbolicLink()) {
+            return ((AttributeAwareStudentFilePolicy) studentFilePolicy)
+                    .isStudentFile(file, root, attrs);
+        }
+        return studentFilePolicy.isStudentFile(file, root);
+    }
+}
@@ -1,10 +1,16 @@
 package fi.helsinki.cs.tmc.langs.io.zip;
 
+import fi.helsinki.cs.tmc.langs.io.AttributeAwareStudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,15 +18,29 @@ import org.slf4j.LoggerFactory;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 public final class StudentFileAwareUnzipper implements Unzipper {
 
     private static final Logger log = LoggerFactory.getLogger(StudentFileAwareUnzipper.class);
 
+    private static final int BUFFER_SIZE = 8192;
+
     private StudentFilePolicy filePolicy;
+    private boolean parallel;
+    private boolean incremental;
 
     public StudentFileAwareUnzipper() { }
 
@@ -33,6 +53,35 @@ public final class StudentFileAwareUnzipper implements Unzipper {
         this.filePolicy = studentFilePolicy;
     }
 
+    @Override
+    public Unzipper withStudentFilePolicy(StudentFilePolicy studentFilePolicy) {
+        StudentFileAwareUnzipper unzipper = new StudentFileAwareUnzipper(studentFilePolicy);
+        unzipper.parallel = parallel;
+        unzipper.incremental = incremental;
+        return unzipper;
+    }
+
+    /**
+     * Sets whether entries are extracted in parallel on all available processors.
+     *
+     * <p>Directories are created first on the calling thread, after which the files are
+     * inflated and written concurrently. Existing student files are still never overwritten.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Sets whether files that already have the contents of their entry are left untouched.
+     *
+     * <p>In incremental mode an existing file is compared to the size and CRC-32 recorded for the
+     * entry in the archive, and is only rewritten if they differ. This keeps the modification
+     * times of unchanged files stable, so builds in the workspace stay incremental.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
     @Override
     public void unzip(Path zip, Path target) throws IOException {
         log.info("Unzipping {} to {}", zip, target);
@@ -41,45 +90,193 @@ public final class StudentFileAwareUnzipper implements Unzipper {
             throw new FileNotFoundException("Attempted to unzip nonexistent archive");
         }
 
+        createTarget(target);
+
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            unzip(zipFile, target);
+        }
+    }
+
+    @Override
+    public void unzip(SeekableByteChannel zip, Path target) throws IOException {
+        log.info("Unzipping from channel to {}", target);
+        createTarget(target);
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            unzip(zipFile, target);
+        }
+    }
+
+    @Override
+    public void unzip(byte[] zip, Path target) throws IOException {
+        unzip(new SeekableInMemoryByteChannel(zip), target);
+    }
+
+    @Override
+    public void unzip(InputStream zip, Path target) throws IOException {
+        unzip(IOUtils.toByteArray(zip), target);
+    }
+
+    private void createTarget(Path target) throws IOException {
         if (!Files.exists(target)) {
             log.debug("Unzip target {} does not exist, creating folder structure", target);
             Files.createDirectories(target);
         }
+    }
 
-        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+    private void unzip(ZipFile zipFile, Path target) throws IOException {
+        if (parallel) {
+            unzipInParallel(zipFile, target);
+        } else {
             Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
             while (entries.hasMoreElements()) {
                 ZipArchiveEntry entry = entries.nextElement();
-                Path entryTargetPath = target.resolve(entry.getName());
+                Path entryTargetPath = resolveEntry(target, entry);
 
-                log.debug("Processing zipEntry with name {} to {}", entry.getName(), entryTargetPath);
+                log.debug("Processing zipEntry with name {} to {}",
+                        entry.getName(), entryTargetPath);
                 if (entry.isDirectory()) {
                     Files.createDirectories(entryTargetPath);
                 } else {
-                    if (allowedToUnzip(entryTargetPath, target)) {
-                        log.trace("Allowed to unzip, unzipping");
-                        InputStream entryContent = zipFile.getInputStream(entry);
-                        FileUtils.copyInputStreamToFile(entryContent, entryTargetPath.toFile());
-                    } else {
-                        log.trace("Not allowed to unzip, skipping file");
-                    }
+                    unzipFile(zipFile, entry, entryTargetPath, target);
                 }
-
-                log.debug("Done with file {}", entryTargetPath);
             }
         }
         log.debug("Done unzipping");
     }
 
-    private boolean allowedToUnzip(Path file, Path projectRoot) {
-        if (!Files.exists(file)) {
+    private void unzipInParallel(final ZipFile zipFile, final Path target) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+        while (entries.hasMoreElements()) {
+            final ZipArchiveEntry entry = entries.nextElement();
+            final Path entryTargetPath = resolveEntry(target, entry);
+
+            log.debug("Processing zipEntry with name {} to {}", entry.getName(), entryTargetPath);
+            if (entry.isDirectory()) {
+                Files.createDirectories(entryTargetPath);
+                continue;
+            }
+
+            Files.createDirectories(entryTargetPath.getParent());
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    unzipFile(zipFile, entry, entryTargetPath, target);
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("tmc-langs-unzipper-%d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while unzipping to " + target, e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Resolves the path an entry is extracted to, rejecting entries such as
+     * {@code ../file} that would end up outside of the target directory.
+     */
+    private static Path resolveEntry(Path target, ZipArchiveEntry entry) throws IOException {
+        Path entryTargetPath = target.resolve(entry.getName()).normalize();
+        if (!entryTargetPath.startsWith(target.normalize())) {
+            throw new IOException(
+                    "Zip entry " + entry.getName() + " would be extracted outside of " + target);
+        }
+        return entryTargetPath;
+    }
+
+    /**
+     * Writes a file entry to entryTargetPath unless that would overwrite a student file. The
+     * archive may be read from several threads at once.
+     */
+    private void unzipFile(ZipFile zipFile,
+                           ZipArchiveEntry entry,
+                           Path entryTargetPath,
+                           Path target) throws IOException {
+        BasicFileAttributes attributes = readAttributes(entryTargetPath);
+        if (allowedToUnzip(entryTargetPath, target, attributes)) {
+            if (incremental && isUnchanged(entry, entryTargetPath, attributes)) {
+                log.trace("File has the contents of the entry, skipping");
+                return;
+            }
+            log.trace("Allowed to unzip, unzipping");
+            try (InputStream entryContent = zipFile.getInputStream(entry)) {
+                FileUtils.copyInputStreamToFile(entryContent, entryTargetPath.toFile());
+            }
+        } else {
+            log.trace("Not allowed to unzip, skipping file");
+        }
+
+        log.debug("Done with file {}", entryTargetPath);
+    }
+
+    private boolean isUnchanged(ZipArchiveEntry entry, Path file, BasicFileAttributes attributes)
+            throws IOException {
+        if (entry.getSize() < 0 || entry.getCrc() < 0
+                || attributes == null || !attributes.isRegularFile()) {
+            return false;
+        }
+        if (attributes.size() != entry.getSize()) {
+            return false;
+        }
+
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue() == entry.getCrc();
+    }
+
+    /**
+     * Reads the attributes of an existing file once, so that neither the policy nor the
+     * incremental check needs to query the file system again. Returns null if the file does
+     * not exist.
+     */
+    private static BasicFileAttributes readAttributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean allowedToUnzip(Path file, Path projectRoot, BasicFileAttributes attributes) {
+        if (attributes == null) {
             log.trace("File does not exist, allowing unzipping");
             return true;
         }
 
         log.trace("File exists, checking whether overwriting is allowed");
 
-        if (filePolicy.isStudentFile(file, projectRoot)) {
+        boolean studentFile;
+        if (filePolicy instanceof AttributeAwareStudentFilePolicy) {
+            studentFile = ((AttributeAwareStudentFilePolicy) filePolicy)
+                    .isStudentFile(file, projectRoot, attributes);
+        } else {
+            studentFile = filePolicy.isStudentFile(file, projectRoot);
+        }
+        if (studentFile) {
             log.trace("File is student file, do not allow to overwrite");
             return false;
         }
@@ -1,10 +1,21 @@
 package fi.helsinki.cs.tmc.langs.io.zip;
 
+import fi.helsinki.cs.tmc.langs.io.AttributeAwareStudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.InputStreamSupplier;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,14 +23,33 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
 
 public final class StudentFileAwareZipper implements Zipper {
 
     private static final Logger log = LoggerFactory.getLogger(StudentFileAwareZipper.class);
+
+    private static final int DIRECTORY_MODE = 040755;
+    private static final int FILE_MODE = 0100644;
+
     private StudentFilePolicy filePolicy;
+    private boolean parallel;
+    private boolean deterministic;
 
     public StudentFileAwareZipper() { }
 
@@ -32,8 +62,62 @@ public final class StudentFileAwareZipper implements Zipper {
         this.filePolicy = studentFilePolicy;
     }
 
+    @Override
+    public Zipper withStudentFilePolicy(StudentFilePolicy studentFilePolicy) {
+        StudentFileAwareZipper zipper = new StudentFileAwareZipper(studentFilePolicy);
+        zipper.parallel = parallel;
+        zipper.deterministic = deterministic;
+        return zipper;
+    }
+
+    /**
+     * Sets whether files are compressed in parallel on all available processors.
+     *
+     * <p>In parallel mode each file is deflated into a temporary scatter file and the results are
+     * gathered into the zip at the end, which pays off for projects with many or large files.
+     * The same files end up in the zip under the same names, but the order of the file entries
+     * may differ between runs.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Sets whether the zip is built deterministically, so that the same student files always
+     * give the same bytes.
+     *
+     * <p>In deterministic mode entries are written in name order, every entry gets the same
+     * timestamp and the permissions are normalized to 755 for directories and 644 for files.
+     * Files are compressed on the calling thread even if parallel mode is also enabled, as the
+     * order of parallel compressed entries is not stable.
+     */
+    public void setDeterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+    }
+
+    /**
+     * Writes the zip to <tt>output</tt> like {@link #zip(Path, OutputStream)} and returns the
+     * SHA-256 digest of the written bytes.
+     *
+     * <p>In deterministic mode the digest identifies the contents of the student files, and can
+     * be used to recognize a resubmission of identical files without looking at the archive.
+     */
+    public HashCode zipWithDigest(Path rootDirectory, OutputStream output) throws IOException {
+        HashingOutputStream hashingOutput =
+                new HashingOutputStream(Hashing.sha256(), new CloseShieldOutputStream(output));
+        zip(rootDirectory, hashingOutput);
+        return hashingOutput.hash();
+    }
+
     @Override
     public byte[] zip(Path rootDirectory) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        zip(rootDirectory, buffer);
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public void zip(Path rootDirectory, OutputStream output) throws IOException {
         log.debug("Starting to zip {}", rootDirectory);
 
         if (!Files.exists(rootDirectory)) {
@@ -41,32 +125,75 @@ public final class StudentFileAwareZipper implements Zipper {
             throw new FileNotFoundException("Attempted to zip nonexistent directory");
         }
 
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        try (ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(buffer)) {
-            zipRecursively(rootDirectory, zipStream, rootDirectory.getParent());
+        try (ZipArchiveOutputStream zipStream =
+                     new ZipArchiveOutputStream(new CloseShieldOutputStream(output))) {
+            if (parallel && !deterministic) {
+                zipInParallel(rootDirectory, zipStream);
+            } else {
+                zipRecursively(rootDirectory, zipStream, null, rootDirectory.getParent());
+            }
             zipStream.finish();
         }
+        output.flush();
+    }
 
-        return buffer.toByteArray();
+    @Override
+    public void zip(Path rootDirectory, WritableByteChannel channel) throws IOException {
+        zip(rootDirectory, Channels.newOutputStream(channel));
     }
 
+    private void zipInParallel(Path rootDirectory, ZipArchiveOutputStream zipStream)
+            throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("tmc-langs-zipper-%d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            ParallelScatterZipCreator scatter = new ParallelScatterZipCreator(executor);
+            zipRecursively(rootDirectory, zipStream, scatter, rootDirectory.getParent());
+            log.trace("Gathering compressed files");
+            scatter.writeTo(zipStream);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while zipping " + rootDirectory, e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw new IOException("Unable to zip " + rootDirectory, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
+    /**
+     * Writes the student files under currentPath to the zip. Directory entries are written
+     * directly; file entries are handed to the scatter creator when one is given.
+     */
     private void zipRecursively(Path currentPath,
                                 ZipArchiveOutputStream zipStream,
+                                ParallelScatterZipCreator scatter,
                                 Path zipParent) throws IOException {
 
         log.trace("Processing {}", currentPath);
 
-        if (filePolicy.isStudentFile(currentPath, zipParent)) {
+        BasicFileAttributes attributes = readAttributes(currentPath);
+        if (isStudentFile(currentPath, zipParent, attributes)) {
             log.trace("{} is student file", currentPath);
 
-            writeToZip(currentPath, zipStream, zipParent);
+            boolean regularFile = attributes != null && attributes.isRegularFile();
+            boolean directory = attributes != null && attributes.isDirectory();
+            if (scatter != null && regularFile) {
+                addToScatter(currentPath, scatter, zipParent);
+            } else {
+                writeToZip(currentPath, zipStream, zipParent, regularFile, directory);
+            }
 
-            if (Files.isDirectory(currentPath)) {
+            if (directory) {
                 log.trace("Recursing to zip contents of {}", currentPath);
-                try (DirectoryStream<Path> directory = Files.newDirectoryStream(currentPath)) {
-                    for (Path child : directory) {
-                        zipRecursively(child, zipStream, zipParent);
+                try {
+                    for (Path child : listChildren(currentPath)) {
+                        zipRecursively(child, zipStream, scatter, zipParent);
                     }
                 } catch (IOException exception) {
                     log.error("Exception while attempting to zip contents of {}", currentPath);
@@ -76,24 +203,62 @@ public final class StudentFileAwareZipper implements Zipper {
         }
     }
 
+    /**
+     * Reads the attributes of the path once, so that neither the policy nor the zipper needs
+     * to query the file system again. Returns null if the path does not exist.
+     */
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean isStudentFile(Path path, Path zipParent, BasicFileAttributes attributes) {
+        if (filePolicy instanceof AttributeAwareStudentFilePolicy) {
+            return ((AttributeAwareStudentFilePolicy) filePolicy)
+                    .isStudentFile(path, zipParent, attributes);
+        }
+        return filePolicy.isStudentFile(path, zipParent);
+    }
+
+    private List<Path> listChildren(Path directory) throws IOException {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        }
+        if (deterministic) {
+            return Ordering.natural().sortedCopy(children);
+        }
+        return children;
+    }
+
     private void writeToZip(Path currentPath,
                             ZipArchiveOutputStream zipStream,
-                            Path zipParent) throws IOException {
+                            Path zipParent,
+                            boolean regularFile,
+                            boolean directory) throws IOException {
 
         log.trace("Writing {} to zip", currentPath);
 
         String name = zipParent.relativize(currentPath).toString();
 
-        if (Files.isDirectory(currentPath)) {
+        if (directory) {
             log.trace("{} is a directory", currentPath);
             // Must be "/", can not be replaces with File.separator
             name += "/";
         }
 
         ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        if (deterministic) {
+            normalize(entry);
+        }
         zipStream.putArchiveEntry(entry);
 
-        if (Files.isRegularFile(currentPath)) {
+        if (regularFile) {
             log.trace("{} is a regular file, copying bytes", currentPath);
             FileUtils.copyFile(currentPath.toFile(), zipStream);
             log.trace("Done copying bytes");
@@ -102,4 +267,34 @@ public final class StudentFileAwareZipper implements Zipper {
         log.trace("Closing entry");
         zipStream.closeArchiveEntry();
     }
-}
\ No newline at end of file
+
+    /**
+     * Gives the entry a fixed timestamp and permissions. The timestamp is the start of the DOS
+     * epoch in local time, as zip timestamps are stored in local time and would otherwise depend
+     * on the time zone.
+     */
+    private static void normalize(ZipArchiveEntry entry) {
+        entry.setTime(new GregorianCalendar(1980, Calendar.JANUARY, 1).getTimeInMillis());
+        entry.setUnixMode(entry.isDirectory() ? DIRECTORY_MODE : FILE_MODE);
+    }
+
+    private void addToScatter(final Path file,
+                              ParallelScatterZipCreator scatter,
+                              Path zipParent) {
+
+        log.trace("Scheduling {} for parallel compression", file);
+
+        ZipArchiveEntry entry = new ZipArchiveEntry(zipParent.relativize(file).toString());
+        entry.setMethod(ZipEntry.DEFLATED);
+        scatter.addArchiveEntry(entry, new InputStreamSupplier() {
+            @Override
+            public InputStream get() {
+                try {
+                    return Files.newInputStream(file);
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        });
+    }
+}
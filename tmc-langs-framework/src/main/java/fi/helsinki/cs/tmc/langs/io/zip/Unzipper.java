@@ -3,11 +3,38 @@ package fi.helsinki.cs.tmc.langs.io.zip;
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 
 public interface Unzipper {
 
     void unzip(Path zipfile, Path target) throws IOException;
 
+    /**
+     * Extracts a zip read from <tt>zip</tt>, such as a file channel or an in-memory buffer. The
+     * channel is closed once the zip has been extracted.
+     */
+    void unzip(SeekableByteChannel zip, Path target) throws IOException;
+
+    /**
+     * Extracts a zip held in memory.
+     */
+    void unzip(byte[] zip, Path target) throws IOException;
+
+    /**
+     * Extracts a zip read from <tt>zip</tt>. As the entries of a zip are located through the
+     * central directory at its end, the stream is read into memory first. The stream is not
+     * closed.
+     */
+    void unzip(InputStream zip, Path target) throws IOException;
+
     void setStudentFilePolicy(StudentFilePolicy studentFilePolicy);
+
+    /**
+     * Returns a unzipper configured like this one that uses the given policy. Unlike
+     * {@link #setStudentFilePolicy(StudentFilePolicy)}, this one is left untouched, so a shared
+     * unzipper can be used by several threads at once with a policy per call.
+     */
+    Unzipper withStudentFilePolicy(StudentFilePolicy studentFilePolicy);
 }
\ No newline at end of file
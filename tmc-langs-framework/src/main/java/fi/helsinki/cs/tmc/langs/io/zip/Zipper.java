@@ -3,11 +3,32 @@ package fi.helsinki.cs.tmc.langs.io.zip;
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 
 public interface Zipper {
 
     byte[] zip(Path rootDirectory) throws IOException;
 
+    /**
+     * Writes the zip of <tt>rootDirectory</tt> to <tt>output</tt> as it is being built, without
+     * buffering the whole archive in memory. The stream is not closed.
+     */
+    void zip(Path rootDirectory, OutputStream output) throws IOException;
+
+    /**
+     * Writes the zip of <tt>rootDirectory</tt> to <tt>channel</tt> like
+     * {@link #zip(Path, OutputStream)}. The channel is not closed.
+     */
+    void zip(Path rootDirectory, WritableByteChannel channel) throws IOException;
+
     void setStudentFilePolicy(StudentFilePolicy studentFilePolicy);
+
+    /**
+     * Returns a zipper configured like this one that uses the given policy. Unlike
+     * {@link #setStudentFilePolicy(StudentFilePolicy)}, this one is left untouched, so a shared
+     * zipper can be used by several threads at once with a policy per call.
+     */
+    Zipper withStudentFilePolicy(StudentFilePolicy studentFilePolicy);
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+package fi.helsinki.cs.tmc.langs.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Captures the output of a process stream using a bounded amount of memory.
+ *
+ * <p>The first <tt>headLimit</tt> bytes and the last <tt>tailLimit</tt> bytes are kept in
+ * memory; anything in between is dropped. If spilling is enabled, all output that does not fit
+ * in the head is also written to a temporary file, which is then left for the caller to delete.
+ *
+ * <p>The buffers grow as output arrives, so a quiet process uses little memory whatever the
+ * limits are.
+ *
+ * <p>Writes come from one thread at a time, and the captured output is only read after the
+ * stream has been closed.
+ */
+final class BoundedOutputCapture extends OutputStream {
+
+    private static final Logger log = LoggerFactory.getLogger(BoundedOutputCapture.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final int headLimit;
+    private final int tailLimit;
+
+    private byte[] head;
+    private byte[] tail;
+    private boolean spill;
+
+    private int headLength;
+    private int tailPosition;
+    private boolean tailFull;
+    private long total;
+
+    private Path spillFile;
+    private OutputStream spillStream;
+
+    BoundedOutputCapture(int headLimit, int tailLimit, boolean spill) {
+        this.headLimit = headLimit;
+        this.tailLimit = tailLimit;
+        this.head = new byte[Math.min(headLimit, INITIAL_BUFFER_SIZE)];
+        this.spill = spill;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        total += len;
+
+        int toHead = Math.min(len, headLimit - headLength);
+        if (headLength + toHead > head.length) {
+            head = Arrays.copyOf(head, Math.min(headLimit,
+                    Math.max(head.length * 2, headLength + toHead)));
+        }
+        System.arraycopy(b, off, head, headLength, toHead);
+        headLength += toHead;
+        off += toHead;
+        len -= toHead;
+        if (len == 0) {
+            return;
+        }
+
+        writeToSpill(b, off, len);
+        writeToTail(b, off, len);
+    }
+
+    private void writeToTail(byte[] b, int off, int len) {
+        if (tailLimit == 0) {
+            return;
+        }
+        if (tail == null) {
+            tail = new byte[tailLimit];
+        }
+        if (len >= tail.length) {
+            System.arraycopy(b, off + len - tail.length, tail, 0, tail.length);
+            tailPosition = 0;
+            tailFull = true;
+            return;
+        }
+
+        int first = Math.min(len, tail.length - tailPosition);
+        System.arraycopy(b, off, tail, tailPosition, first);
+        System.arraycopy(b, off + first, tail, 0, len - first);
+        if (tailPosition + len >= tail.length) {
+            tailFull = true;
+        }
+        tailPosition = (tailPosition + len) % tail.length;
+    }
+
+    private void writeToSpill(byte[] b, int off, int len) {
+        if (!spill) {
+            return;
+        }
+        try {
+            if (spillStream == null) {
+                spillFile = Files.createTempFile("tmc-process-output", ".log");
+                spillStream = new BufferedOutputStream(Files.newOutputStream(spillFile));
+            }
+            spillStream.write(b, off, len);
+        } catch (IOException e) {
+            log.warn("Unable to spill process output to {}, dropping it", spillFile, e);
+            closeSpill();
+            spill = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        closeSpill();
+    }
+
+    private void closeSpill() {
+        if (spillStream == null) {
+            return;
+        }
+        try {
+            spillStream.close();
+        } catch (IOException e) {
+            log.warn("Unable to close spilled process output {}", spillFile, e);
+        }
+    }
+
+    /**
+     * Returns whether some of the output was dropped from memory.
+     */
+    boolean isTruncated() {
+        return total > headLength + tailLength();
+    }
+
+    /**
+     * Returns the file the output beyond the head was spilled to, or null if nothing was.
+     */
+    Path getSpillFile() {
+        return spillFile;
+    }
+
+    /**
+     * Returns the captured output. If output was dropped, a line telling how many bytes were
+     * left out separates the head from the tail.
+     */
+    String getOutput() {
+        StringBuilder output = new StringBuilder(
+                new String(head, 0, headLength, StandardCharsets.UTF_8));
+        if (isTruncated()) {
+            long dropped = total - headLength - tailLength();
+            output.append("\n[... ").append(dropped).append(" bytes truncated ...]\n");
+        }
+        if (tailFull) {
+            byte[] ordered = new byte[tail.length];
+            System.arraycopy(tail, tailPosition, ordered, 0, tail.length - tailPosition);
+            System.arraycopy(tail, 0, ordered, tail.length - tailPosition, tailPosition);
+            output.append(new String(ordered, StandardCharsets.UTF_8));
+        } else if (tail != null) {
+            output.append(new String(tail, 0, tailPosition, StandardCharsets.UTF_8));
+        }
+        return output.toString();
+    }
+
+    private int tailLength() {
+        return tailFull ? tailLimit : tailPosition;
+    }
+}
@@ -0,0 +1,168 @@
+package fi.helsinki.cs.tmc.langs.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the output streams of child processes without dedicating threads to each of them.
+ *
+ * <p>Process pipes cannot be selected on, so a single daemon thread polls all pumped streams
+ * and copies whatever they have {@link InputStream#available() available}. The pump never
+ * blocks on a read, so one stream can never hold up the others, and the number of threads stays
+ * the same no matter how many processes run.
+ *
+ * <p>Everything a process wrote before exiting is available once it has exited, so a stream is
+ * finished as soon as its process has exited and nothing more is available. Background
+ * descendants that inherited the pipe do not keep the stream open: output they write after that
+ * is not captured, and the pipe is closed under them.
+ *
+ * <p>Polling trades latency and CPU for threads. While any stream is pumped, the thread wakes
+ * up every {@value #POLL_INTERVAL_MILLIS} ms, so each run may take up to that much longer to
+ * complete, and an idle pump costs one <tt>available()</tt> call per stream per interval. When
+ * nothing is pumped the thread waits without polling.
+ */
+final class OutputPump {
+
+    /**
+     * Receives notice that a pumped stream is finished, and both it and its sink
+     * have been closed.
+     */
+    interface DoneListener {
+        void done();
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(OutputPump.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 10;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Set<Pumped> pumped =
+            Collections.newSetFromMap(new ConcurrentHashMap<Pumped, Boolean>());
+
+    private static Thread pumpThread;
+
+    private OutputPump() {}
+
+    /**
+     * Starts copying the stream to the sink. The listener is called once the stream has been
+     * finished, which happens only after {@link Pumped#processExited()} has been called.
+     */
+    static synchronized Pumped pump(InputStream in, OutputStream sink, DoneListener listener) {
+        Pumped stream = new Pumped(in, sink, listener);
+        pumped.add(stream);
+        if (pumpThread != null) {
+            OutputPump.class.notifyAll();
+            return stream;
+        }
+        pumpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pumpAll();
+            }
+        }, "tmc-process-output-pump");
+        pumpThread.setDaemon(true);
+        pumpThread.start();
+        return stream;
+    }
+
+    private static void pumpAll() {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (true) {
+            boolean progressed = false;
+            Iterator<Pumped> iterator = pumped.iterator();
+            while (iterator.hasNext()) {
+                Pumped stream = iterator.next();
+                // Read before checking for output, so that output written just before the exit
+                // is seen as available
+                boolean exited = stream.exited;
+                try {
+                    if (stream.copyAvailable(buffer)) {
+                        progressed = true;
+                    } else if (exited) {
+                        iterator.remove();
+                        stream.finish();
+                    }
+                } catch (IOException e) {
+                    log.error(e.toString());
+                    iterator.remove();
+                    stream.finish();
+                }
+            }
+
+            if (progressed) {
+                continue;
+            }
+            try {
+                synchronized (OutputPump.class) {
+                    if (pumped.isEmpty()) {
+                        OutputPump.class.wait();
+                    }
+                }
+                TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                log.warn("Output pump interrupted, continuing");
+            }
+        }
+    }
+
+    /**
+     * A stream being pumped. Only the pump thread reads it.
+     */
+    static final class Pumped {
+
+        private final InputStream in;
+        private final OutputStream sink;
+        private final DoneListener listener;
+
+        private volatile boolean exited;
+
+        private Pumped(InputStream in, OutputStream sink, DoneListener listener) {
+            this.in = in;
+            this.sink = sink;
+            this.listener = listener;
+        }
+
+        /**
+         * Tells the pump that the process has exited, so the stream can be finished once
+         * nothing more is available.
+         */
+        void processExited() {
+            exited = true;
+        }
+
+        private boolean copyAvailable(byte[] buffer) throws IOException {
+            int available = in.available();
+            if (available <= 0) {
+                return false;
+            }
+            int read = in.read(buffer, 0, Math.min(available, buffer.length));
+            if (read > 0) {
+                sink.write(buffer, 0, read);
+            }
+            return read > 0;
+        }
+
+        private void finish() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.error(e.toString());
+            }
+            try {
+                sink.close();
+            } catch (IOException e) {
+                log.error(e.toString());
+            }
+            listener.done();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package fi.helsinki.cs.tmc.langs.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notices when child processes exit without dedicating a waiting thread to each of them.
+ *
+ * <p>A single daemon thread polls all watched processes and runs their exit callback once
+ * {@link Process#exitValue()} no longer reports them as running. The thread sleeps while there
+ * is nothing to watch.
+ */
+final class ProcessReaper {
+
+    /**
+     * Receives the exit status of a watched process.
+     */
+    interface ExitListener {
+        void exited(int statusCode);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessReaper.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 10;
+
+    private static final ConcurrentMap<Process, ExitListener> watched = new ConcurrentHashMap<>();
+
+    private static Thread reaperThread;
+
+    private ProcessReaper() {}
+
+    /**
+     * Starts watching the process. The listener is called on the reaper thread and must not
+     * block.
+     */
+    static synchronized void watch(Process process, ExitListener listener) {
+        watched.put(process, listener);
+        if (reaperThread != null) {
+            ProcessReaper.class.notifyAll();
+            return;
+        }
+        reaperThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reap();
+            }
+        }, "tmc-process-reaper");
+        reaperThread.setDaemon(true);
+        reaperThread.start();
+    }
+
+    private static void reap() {
+        while (true) {
+            Iterator<ConcurrentMap.Entry<Process, ExitListener>> iterator =
+                    watched.entrySet().iterator();
+            while (iterator.hasNext()) {
+                ConcurrentMap.Entry<Process, ExitListener> entry = iterator.next();
+                int statusCode;
+                try {
+                    statusCode = entry.getKey().exitValue();
+                } catch (IllegalThreadStateException stillRunning) {
+                    continue;
+                }
+                iterator.remove();
+                try {
+                    entry.getValue().exited(statusCode);
+                } catch (RuntimeException e) {
+                    log.error("Process exit listener failed", e);
+                }
+            }
+
+            try {
+                synchronized (ProcessReaper.class) {
+                    if (watched.isEmpty()) {
+                        ProcessReaper.class.wait();
+                    }
+                }
+                TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                log.warn("Process reaper interrupted, continuing");
+            }
+        }
+    }
+}
@@ -1,16 +1,68 @@
 package fi.helsinki.cs.tmc.langs.utils;
 
+import fi.helsinki.cs.tmc.langs.domain.ResourceUsage;
+
+import java.nio.file.Path;
+
 public final class ProcessResult {
     public final int statusCode;
     public final String output;
     public final String errorOutput;
 
+    /**
+     * Whether part of {@link #output} was left out because it exceeded the capture limits of
+     * the {@link ProcessRunner}.
+     */
+    public final boolean outputTruncated;
+    public final boolean errorOutputTruncated;
+
+    /**
+     * The temporary file the output beyond the capture limit was spilled to, or null if output
+     * was not spilled. The caller is responsible for deleting it.
+     */
+    public final Path outputSpillFile;
+    public final Path errorOutputSpillFile;
+
+    /**
+     * Whether the process was killed because it ran past its timeout. The status code of a
+     * killed process is not meaningful.
+     */
+    public final boolean timedOut;
+
+    /**
+     * The resources used by the process and its descendants, or null if they could not be
+     * measured.
+     */
+    public final ResourceUsage resourceUsage;
+
     /**
      * This is returned by Process Runner and has information about the result of the process.
      */
     public ProcessResult(int statusCode, String output, String errorOutput) {
+        this(statusCode, output, errorOutput, false, false, null, null, false, null);
+    }
+
+    /**
+     * Creates a result whose output may have been truncated or spilled to disk, or whose process
+     * may have timed out, with the resources the process used.
+     */
+    public ProcessResult(int statusCode,
+                         String output,
+                         String errorOutput,
+                         boolean outputTruncated,
+                         boolean errorOutputTruncated,
+                         Path outputSpillFile,
+                         Path errorOutputSpillFile,
+                         boolean timedOut,
+                         ResourceUsage resourceUsage) {
         this.statusCode = statusCode;
         this.output = output;
         this.errorOutput = errorOutput;
+        this.outputTruncated = outputTruncated;
+        this.errorOutputTruncated = errorOutputTruncated;
+        this.outputSpillFile = outputSpillFile;
+        this.errorOutputSpillFile = errorOutputSpillFile;
+        this.timedOut = timedOut;
+        this.resourceUsage = resourceUsage;
     }
-}
\ No newline at end of file
+}
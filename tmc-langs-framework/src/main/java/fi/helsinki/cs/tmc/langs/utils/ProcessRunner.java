@@ -1,87 +1,238 @@
 package fi.helsinki.cs.tmc.langs.utils;
 
-import org.apache.commons.io.IOUtils;
+import fi.helsinki.cs.tmc.langs.domain.ResourceUsage;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.InputStream;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Used to run subprocesses with a timeout and capture their output.
  *
- * <p>
- * TODO: make cancellable
+ * <p>Processes can be run either blocking with {@link #call()} or asynchronously with
+ * {@link #callAsync()}, in which case cancelling the returned future destroys the process.
+ *
+ * <p>A process that runs past its {@link #setTimeout(long, TimeUnit) timeout} is killed
+ * together with all of its descendants, and its result is marked as
+ * {@link ProcessResult#timedOut timed out}.
  */
 public final class ProcessRunner implements Callable<ProcessResult> {
 
     private static final Logger log = LoggerFactory.getLogger(ProcessRunner.class);
 
+    /**
+     * The default number of bytes kept from the beginning of each output stream.
+     */
+    public static final int DEFAULT_HEAD_LIMIT = 4 * 1024 * 1024;
+
+    /**
+     * The default number of bytes kept from the end of each output stream.
+     */
+    public static final int DEFAULT_TAIL_LIMIT = 1024 * 1024;
+
+    private static final ScheduledExecutorService deadlines =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("tmc-process-deadline-%d")
+                    .setDaemon(true)
+                    .build());
+
     private final String[] command;
     private final Path workDir;
 
+    private int headLimit = DEFAULT_HEAD_LIMIT;
+    private int tailLimit = DEFAULT_TAIL_LIMIT;
+    private boolean spillToDisk;
+    private long timeoutMillis;
+    private ResourceLimits resourceLimits = ResourceLimits.NONE;
+
     public ProcessRunner(String[] command, Path workDir) {
         this.command = command;
         this.workDir = workDir;
     }
 
+    /**
+     * Sets how much of each output stream is kept in memory.
+     *
+     * <p>The first <tt>headLimit</tt> and the last <tt>tailLimit</tt> bytes of stdout and stderr
+     * are captured, and the output in between is left out and marked as truncated in the
+     * {@link ProcessResult}. This bounds the memory a process can make us use, however much it
+     * prints.
+     */
+    public void setOutputLimits(int headLimit, int tailLimit) {
+        Preconditions.checkArgument(headLimit >= 0 && tailLimit >= 0,
+                "Output limits must not be negative");
+        this.headLimit = headLimit;
+        this.tailLimit = tailLimit;
+    }
+
+    /**
+     * Sets whether output that does not fit in the head limit is also written to a temporary
+     * file, see {@link ProcessResult#outputSpillFile}. The spilled output is not limited in size.
+     */
+    public void setSpillToDisk(boolean spillToDisk) {
+        this.spillToDisk = spillToDisk;
+    }
+
+    /**
+     * Sets the wall-clock time the process may run before it and all of its descendants are
+     * killed. Zero, the default, means no timeout.
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout >= 0, "Timeout must not be negative");
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Sets the operating system resource limits the process is started with.
+     */
+    public void setResourceLimits(ResourceLimits resourceLimits) {
+        this.resourceLimits = Preconditions.checkNotNull(resourceLimits);
+    }
+
     @Override
     public ProcessResult call() throws Exception {
-        Process process = null;
+        ListenableFuture<ProcessResult> result = callAsync();
         try {
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Starts the process and returns immediately.
+     *
+     * <p>No thread waits for the process to exit; the returned future is completed once the
+     * process has exited and all of its output has been read. Cancelling the future kills the
+     * process and its descendants.
+     */
+    public ListenableFuture<ProcessResult> callAsync() {
+        final Process process;
+        try {
+            ProcessBuilder processBuilder =
+                    new ProcessBuilder(resourceLimits.wrap(Arrays.asList(command)));
             processBuilder.directory(workDir.toFile());
             process = processBuilder.start();
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
 
-            StringWriter stdoutWriter = new StringWriter();
-            StringWriter stderrWriter = new StringWriter();
-
-            Thread stdoutReaderThread = startReadingThread(process.getInputStream(), stdoutWriter);
-            Thread stderrReaderThread = startReadingThread(process.getErrorStream(), stderrWriter);
+        final Execution execution = new Execution(
+                new BoundedOutputCapture(headLimit, tailLimit, spillToDisk),
+                new BoundedOutputCapture(headLimit, tailLimit, spillToDisk));
+        execution.sampled = ResourceSampler.track(process);
+        final ScheduledFuture<?> deadline = scheduleDeadline(process, execution);
+        execution.result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (deadline != null) {
+                    deadline.cancel(false);
+                }
+                execution.sampled.finish();
+                try {
+                    process.getOutputStream().close();
+                } catch (IOException e) {
+                    log.error(e.toString());
+                }
+                if (execution.result.isCancelled()) {
+                    ProcessTree.kill(process);
+                } else {
+                    process.destroy();
+                }
+            }
+        }, MoreExecutors.directExecutor());
 
-            int statusCode = process.waitFor();
-            stdoutReaderThread.join();
-            stderrReaderThread.join();
+        execution.stdoutPump = OutputPump.pump(process.getInputStream(), execution.stdout,
+                execution);
+        execution.stderrPump = OutputPump.pump(process.getErrorStream(), execution.stderr,
+                execution);
+        ProcessReaper.watch(process, execution);
 
-            return new ProcessResult(statusCode, stdoutWriter.toString(), stderrWriter.toString());
-        } finally {
-            if (process != null) {
-                process.getOutputStream().close();
-                process.destroy();
-            }
-        }
+        return execution.result;
     }
 
-    private Thread startReadingThread(InputStream inputStream, StringWriter stringWriter) {
-        Thread thread = new Thread(new ProcessOutputReader(inputStream, stringWriter));
-        thread.start();
-        return thread;
+    private ScheduledFuture<?> scheduleDeadline(final Process process,
+                                                final Execution execution) {
+        if (timeoutMillis == 0) {
+            return null;
+        }
+        return deadlines.schedule(new Runnable() {
+            @Override
+            public void run() {
+                log.warn("Process {} timed out after {} ms, killing it",
+                        Arrays.toString(command), timeoutMillis);
+                execution.timedOut = true;
+                ProcessTree.kill(process);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
     }
 
-    private class ProcessOutputReader implements Runnable {
-
-        private InputStream inputStream;
-        private StringWriter stringWriter;
+    /**
+     * Tracks a running process until it has exited and both of its output streams are drained.
+     */
+    private static final class Execution
+            implements ProcessReaper.ExitListener, OutputPump.DoneListener {
+
+        private final SettableFuture<ProcessResult> result = SettableFuture.create();
+        private final BoundedOutputCapture stdout;
+        private final BoundedOutputCapture stderr;
+        private final AtomicInteger pending = new AtomicInteger(3);
+
+        private volatile OutputPump.Pumped stdoutPump;
+        private volatile OutputPump.Pumped stderrPump;
+        private volatile int statusCode;
+        private volatile boolean timedOut;
+        private volatile ResourceSampler.Sampled sampled;
+        private volatile ResourceUsage resourceUsage;
+
+        Execution(BoundedOutputCapture stdout, BoundedOutputCapture stderr) {
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
 
-        public ProcessOutputReader(InputStream inputStream, StringWriter stringWriter) {
-            this.inputStream = inputStream;
-            this.stringWriter = stringWriter;
+        @Override
+        public void exited(int statusCode) {
+            this.statusCode = statusCode;
+            this.resourceUsage = sampled.finish();
+            stdoutPump.processExited();
+            stderrPump.processExited();
+            done();
         }
 
         @Override
-        public void run() {
-            try {
-                IOUtils.copy(inputStream, stringWriter, "UTF-8");
-            } catch (IOException e) {
-                log.error(e.toString());
-            }
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                log.error(e.toString());
+        public void done() {
+            if (pending.decrementAndGet() == 0) {
+                result.set(new ProcessResult(statusCode,
+                        stdout.getOutput(),
+                        stderr.getOutput(),
+                        stdout.isTruncated(),
+                        stderr.isTruncated(),
+                        stdout.getSpillFile(),
+                        stderr.getSpillFile(),
+                        timedOut,
+                        resourceUsage));
             }
         }
     }
@@ -0,0 +1,236 @@
+package fi.helsinki.cs.tmc.langs.utils;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.io.ByteStreams;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Kills a process together with all of its descendants.
+ *
+ * <p>{@link Process#destroy()} only signals the direct child, so grandchildren such as the
+ * programs started by <tt>make</tt> or <tt>valgrind</tt> keep running and keep our output pipes
+ * open. On Linux the descendants are found from the parent process ids in <tt>/proc</tt>,
+ * stopped with <tt>SIGSTOP</tt> so that they cannot fork any more, and then killed with
+ * <tt>SIGKILL</tt> together with the process. Elsewhere only the process itself is destroyed.
+ */
+final class ProcessTree {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessTree.class);
+
+    static final Path PROC = Paths.get("/proc");
+
+    /**
+     * Whether the kernel lists the children of each thread in
+     * <tt>/proc/[pid]/task/[tid]/children</tt>, which needs <tt>CONFIG_PROC_CHILDREN</tt>.
+     * Without the lists the stats of all processes have to be read to find descendants.
+     */
+    static final boolean CHILDREN_LISTED =
+            Files.exists(PROC.resolve("1").resolve("task").resolve("1").resolve("children"));
+
+    private static final int MAX_STOP_ROUNDS = 100;
+
+    private ProcessTree() {}
+
+    static void kill(Process process) {
+        Optional<Integer> pid = pidOf(process);
+        if (pid.isPresent() && Files.isDirectory(PROC)) {
+            sendSignal("KILL", stopTree(pid.get()));
+        }
+        process.destroy();
+    }
+
+    /**
+     * Stops the process and its descendants with <tt>SIGSTOP</tt> and returns them. A process
+     * may fork after the tree has been read, so the tree is read and stopped again until no new
+     * processes are found. A stopped process cannot fork, and the descendants of a stopped
+     * process are found even if the root has exited in between.
+     */
+    private static Set<Integer> stopTree(int root) {
+        Set<Integer> stopped = new LinkedHashSet<>();
+        Set<Integer> found = new LinkedHashSet<>();
+        found.add(root);
+        for (int round = 0; round < MAX_STOP_ROUNDS && !found.isEmpty(); round++) {
+            sendSignal("STOP", found);
+            stopped.addAll(found);
+
+            found = new LinkedHashSet<>();
+            ListMultimap<Integer, Integer> children =
+                    CHILDREN_LISTED ? null : childrenOf(readAllStats());
+            for (Integer pid : stopped) {
+                found.addAll(children == null
+                        ? descendantsOf(pid)
+                        : descendantsOf(pid, children));
+            }
+            found.removeAll(stopped);
+        }
+        if (!found.isEmpty()) {
+            log.warn("Processes {} were still forking after {} rounds of stopping them",
+                    stopped, MAX_STOP_ROUNDS);
+            stopped.addAll(found);
+        }
+        return stopped;
+    }
+
+    /**
+     * Returns the process id of the process, through {@code Process.pid()} where available
+     * and the <tt>pid</tt> field of the UNIX implementation otherwise.
+     */
+    static Optional<Integer> pidOf(Process process) {
+        try {
+            Method method = Process.class.getMethod("pid");
+            return Optional.of(((Number) method.invoke(process)).intValue());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not available before Java 9
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return Optional.of(field.getInt(process));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Unable to find the pid of {}", process, e);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Reads the stat of every running process, keyed by pid.
+     */
+    static Map<Integer, String[]> readAllStats() {
+        Map<Integer, String[]> stats = new HashMap<>();
+        try (DirectoryStream<Path> processes = Files.newDirectoryStream(PROC, "[0-9]*")) {
+            for (Path process : processes) {
+                Optional<String[]> stat = readStat(process);
+                if (stat.isPresent()) {
+                    stats.put(Integer.valueOf(process.getFileName().toString()), stat.get());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to list processes", e);
+        }
+        return stats;
+    }
+
+    static ListMultimap<Integer, Integer> childrenOf(Map<Integer, String[]> stats) {
+        ListMultimap<Integer, Integer> children = ArrayListMultimap.create();
+        for (Map.Entry<Integer, String[]> process : stats.entrySet()) {
+            children.put(parentOf(process.getValue()), process.getKey());
+        }
+        return children;
+    }
+
+    /**
+     * Returns the descendants of the process, read from the children lists of the process and
+     * its descendants where the kernel provides them, and from the stats of all processes
+     * otherwise.
+     */
+    static List<Integer> descendantsOf(int root) {
+        if (!CHILDREN_LISTED) {
+            return descendantsOf(root, childrenOf(readAllStats()));
+        }
+        List<Integer> descendants = new ArrayList<>();
+        Deque<Integer> queue = new ArrayDeque<>(listChildren(root));
+        while (!queue.isEmpty()) {
+            Integer pid = queue.poll();
+            descendants.add(pid);
+            queue.addAll(listChildren(pid));
+        }
+        return descendants;
+    }
+
+    private static List<Integer> listChildren(int pid) {
+        List<Integer> children = new ArrayList<>();
+        Path threads = PROC.resolve(Integer.toString(pid)).resolve("task");
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(threads)) {
+            for (Path thread : stream) {
+                String list = new String(Files.readAllBytes(thread.resolve("children")),
+                        StandardCharsets.UTF_8).trim();
+                if (!list.isEmpty()) {
+                    for (String child : list.split(" ")) {
+                        children.add(Integer.valueOf(child));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The process or one of its threads exited
+        }
+        return children;
+    }
+
+    static List<Integer> descendantsOf(int root, ListMultimap<Integer, Integer> children) {
+        List<Integer> descendants = new ArrayList<>();
+        Deque<Integer> queue = new ArrayDeque<>(children.get(root));
+        while (!queue.isEmpty()) {
+            Integer pid = queue.poll();
+            descendants.add(pid);
+            queue.addAll(children.get(pid));
+        }
+        return descendants;
+    }
+
+    /**
+     * Reads the fields of <tt>/proc/[pid]/stat</tt> that follow the command name, so that the
+     * state is at index 0 and the parent pid at index 1. The command name may contain spaces
+     * and parentheses, so the fields are read after its last closing parenthesis. Absent if
+     * the process has already exited.
+     */
+    static Optional<String[]> readStat(Path process) {
+        try {
+            String stat = new String(Files.readAllBytes(process.resolve("stat")),
+                    StandardCharsets.UTF_8);
+            return Optional.of(stat.substring(stat.lastIndexOf(')') + 2).trim().split(" "));
+        } catch (IOException | RuntimeException e) {
+            return Optional.absent();
+        }
+    }
+
+    private static int parentOf(String[] stat) {
+        return Integer.parseInt(stat[1]);
+    }
+
+    private static void sendSignal(String signal, Collection<Integer> pids) {
+        List<String> command = new ArrayList<>();
+        command.add("kill");
+        command.add("-" + signal);
+        for (Integer pid : pids) {
+            command.add(pid.toString());
+        }
+        try {
+            // The output of kill is not used, but its pipes must still be closed so that their
+            // file descriptors are released.
+            Process kill = new ProcessBuilder(command).redirectErrorStream(true).start();
+            kill.getOutputStream().close();
+            try (InputStream output = kill.getInputStream()) {
+                ByteStreams.copy(output, ByteStreams.nullOutputStream());
+            }
+            kill.getErrorStream().close();
+            kill.waitFor();
+        } catch (IOException e) {
+            log.warn("Unable to send SIG{} to processes {}", signal, pids, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
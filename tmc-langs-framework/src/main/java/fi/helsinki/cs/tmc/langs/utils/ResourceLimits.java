@@ -0,0 +1,231 @@
+package fi.helsinki.cs.tmc.langs.utils;
+
+import fi.helsinki.cs.tmc.langs.domain.Configuration;
+import fi.helsinki.cs.tmc.langs.domain.ValueObject;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Operating system resource limits for the child processes of a plugin.
+ *
+ * <p>The limits are applied by {@link #wrap(List) wrapping} the command of the child with
+ * <tt>prlimit</tt> if it is installed, and with the <tt>ulimit</tt> builtin of <tt>sh</tt>
+ * otherwise. They can be set per exercise in <tt>.tmcproject.yml</tt>:
+ *
+ * <pre>
+ * resource_limits:
+ *   cpu_time: 60           # seconds of CPU time
+ *   memory: 2147483648     # bytes of address space
+ *   file_size: 104857600   # bytes per written file
+ *   processes: 256         # processes of the user
+ *   wall_time: 600         # seconds of real time before the process tree is killed
+ * </pre>
+ *
+ * <p>The wall time is not an operating system limit. It is not applied by {@link #wrap(List)},
+ * but read with {@link #getWallTimeSeconds()} and given to
+ * {@link ProcessRunner#setTimeout(long, java.util.concurrent.TimeUnit)} by the plugins, which
+ * use a default of their own when it is not set.
+ *
+ * <p>Note that the process limit counts all processes of the user, not just the descendants of
+ * the child, and that a JVM reserves much more address space than it uses. The process limit is
+ * only applied through <tt>prlimit</tt>, since <tt>sh</tt> implementations disagree on its
+ * flag.
+ */
+public final class ResourceLimits {
+
+    private static final Logger log = LoggerFactory.getLogger(ResourceLimits.class);
+
+    public static final ResourceLimits NONE = new ResourceLimits(Optional.<Long>absent(),
+            Optional.<Long>absent(), Optional.<Long>absent(), Optional.<Long>absent(),
+            Optional.<Long>absent());
+
+    private static final String CONFIGURATION_KEY = "resource_limits";
+
+    private static final List<Path> PRLIMIT_LOCATIONS =
+            ImmutableList.of(Paths.get("/usr/bin/prlimit"), Paths.get("/bin/prlimit"));
+
+    private static final Optional<Path> prlimit = findPrlimit();
+
+    private final Optional<Long> cpuTimeSeconds;
+    private final Optional<Long> memoryBytes;
+    private final Optional<Long> fileSizeBytes;
+    private final Optional<Long> processes;
+    private final Optional<Long> wallTimeSeconds;
+
+    private ResourceLimits(Optional<Long> cpuTimeSeconds,
+                           Optional<Long> memoryBytes,
+                           Optional<Long> fileSizeBytes,
+                           Optional<Long> processes,
+                           Optional<Long> wallTimeSeconds) {
+        this.cpuTimeSeconds = cpuTimeSeconds;
+        this.memoryBytes = memoryBytes;
+        this.fileSizeBytes = fileSizeBytes;
+        this.processes = processes;
+        this.wallTimeSeconds = wallTimeSeconds;
+    }
+
+    /**
+     * Returns the limits in the <tt>resource_limits</tt> section of the configuration, or
+     * {@link #NONE} if it has none. Unknown and non-numeric entries are ignored.
+     */
+    public static ResourceLimits fromConfiguration(Configuration configuration) {
+        ValueObject value = configuration.get(CONFIGURATION_KEY);
+        if (value == null || !(value.get() instanceof Map)) {
+            return NONE;
+        }
+
+        Map<?, ?> limits = (Map<?, ?>) value.get();
+        return new ResourceLimits(
+                positive(limits.get("cpu_time")),
+                positive(limits.get("memory")),
+                positive(limits.get("file_size")),
+                positive(limits.get("processes")),
+                positive(limits.get("wall_time")));
+    }
+
+    private static Optional<Long> positive(Object value) {
+        if (value instanceof Number && ((Number) value).longValue() > 0) {
+            return Optional.of(((Number) value).longValue());
+        }
+        if (value != null) {
+            log.warn("Ignoring resource limit {}, expected a positive number", value);
+        }
+        return Optional.absent();
+    }
+
+    public ResourceLimits withCpuTime(long seconds) {
+        Preconditions.checkArgument(seconds > 0, "CPU time limit must be positive");
+        return new ResourceLimits(Optional.of(seconds), memoryBytes, fileSizeBytes, processes,
+                wallTimeSeconds);
+    }
+
+    public ResourceLimits withMemory(long bytes) {
+        Preconditions.checkArgument(bytes > 0, "Memory limit must be positive");
+        return new ResourceLimits(cpuTimeSeconds, Optional.of(bytes), fileSizeBytes, processes,
+                wallTimeSeconds);
+    }
+
+    public ResourceLimits withFileSize(long bytes) {
+        Preconditions.checkArgument(bytes > 0, "File size limit must be positive");
+        return new ResourceLimits(cpuTimeSeconds, memoryBytes, Optional.of(bytes), processes,
+                wallTimeSeconds);
+    }
+
+    public ResourceLimits withProcesses(long count) {
+        Preconditions.checkArgument(count > 0, "Process limit must be positive");
+        return new ResourceLimits(cpuTimeSeconds, memoryBytes, fileSizeBytes, Optional.of(count),
+                wallTimeSeconds);
+    }
+
+    public ResourceLimits withWallTime(long seconds) {
+        Preconditions.checkArgument(seconds > 0, "Wall time limit must be positive");
+        return new ResourceLimits(cpuTimeSeconds, memoryBytes, fileSizeBytes, processes,
+                Optional.of(seconds));
+    }
+
+    /**
+     * Returns the time the process tree may run before it is killed, if one is set.
+     */
+    public Optional<Long> getWallTimeSeconds() {
+        return wallTimeSeconds;
+    }
+
+    public boolean isEmpty() {
+        return !hasOperatingSystemLimits() && !wallTimeSeconds.isPresent();
+    }
+
+    private boolean hasOperatingSystemLimits() {
+        return cpuTimeSeconds.isPresent() || memoryBytes.isPresent()
+                || fileSizeBytes.isPresent() || processes.isPresent();
+    }
+
+    /**
+     * Returns the command prefixed with a wrapper that applies these limits before running it.
+     * The command is returned as is if there are no limits, or if they cannot be applied on this
+     * operating system.
+     */
+    public List<String> wrap(List<String> command) {
+        if (!hasOperatingSystemLimits()) {
+            return command;
+        }
+        if (prlimit.isPresent()) {
+            return wrapWithPrlimit(command);
+        }
+        if (System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows")) {
+            log.warn("Resource limits are not supported on Windows, ignoring them");
+            return command;
+        }
+        return wrapWithUlimit(command);
+    }
+
+    private List<String> wrapWithPrlimit(List<String> command) {
+        ImmutableList.Builder<String> wrapped = ImmutableList.builder();
+        wrapped.add(prlimit.get().toString());
+        if (cpuTimeSeconds.isPresent()) {
+            wrapped.add("--cpu=" + cpuTimeSeconds.get());
+        }
+        if (memoryBytes.isPresent()) {
+            wrapped.add("--as=" + memoryBytes.get());
+        }
+        if (fileSizeBytes.isPresent()) {
+            wrapped.add("--fsize=" + fileSizeBytes.get());
+        }
+        if (processes.isPresent()) {
+            wrapped.add("--nproc=" + processes.get());
+        }
+        return wrapped.add("--").addAll(command).build();
+    }
+
+    /**
+     * Sets the limits with <tt>ulimit</tt>, which takes memory in kilobytes and file sizes in
+     * 512-byte blocks, and then replaces the shell with the command. The command does not run
+     * if a limit cannot be set.
+     */
+    private List<String> wrapWithUlimit(List<String> command) {
+        StringBuilder script = new StringBuilder();
+        if (cpuTimeSeconds.isPresent()) {
+            script.append("ulimit -t ").append(cpuTimeSeconds.get()).append(" && ");
+        }
+        if (memoryBytes.isPresent()) {
+            script.append("ulimit -v ").append(Math.max(1, memoryBytes.get() / 1024))
+                    .append(" && ");
+        }
+        if (fileSizeBytes.isPresent()) {
+            script.append("ulimit -f ").append(Math.max(1, fileSizeBytes.get() / 512))
+                    .append(" && ");
+        }
+        if (processes.isPresent()) {
+            log.warn("prlimit is not installed, not limiting the number of processes");
+        }
+        script.append("exec \"$@\"");
+
+        return ImmutableList.<String>builder()
+                .add("sh", "-c", script.toString(), "sh")
+                .addAll(command)
+                .build();
+    }
+
+    private static Optional<Path> findPrlimit() {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("linux")) {
+            return Optional.absent();
+        }
+        for (Path location : PRLIMIT_LOCATIONS) {
+            if (Files.isExecutable(location)) {
+                return Optional.of(location);
+            }
+        }
+        return Optional.absent();
+    }
+}
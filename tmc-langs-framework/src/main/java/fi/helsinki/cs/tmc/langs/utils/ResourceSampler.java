@@ -0,0 +1,302 @@
+package fi.helsinki.cs.tmc.langs.utils;
+
+import fi.helsinki.cs.tmc.langs.domain.ResourceUsage;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ListMultimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the resources used by child processes and their descendants.
+ *
+ * <p>The JDK reaps its children itself, so the rusage that <tt>wait4</tt> reports is not
+ * available to us. Instead a single daemon thread samples <tt>/proc</tt> for all tracked
+ * processes: the CPU times and resident set size of every process in the tree, and the storage
+ * I/O. The CPU times and I/O of a process include its children that have exited and been
+ * waited for, so work done by short-lived descendants is counted as well. The CPU time spent
+ * after the last sample is recovered when the process exits, from the CPU times of the waited
+ * for children of this JVM. Only works on Linux; elsewhere no usage is reported.
+ */
+final class ResourceSampler {
+
+    private static final Logger log = LoggerFactory.getLogger(ResourceSampler.class);
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 100;
+
+    /**
+     * The unit of the CPU times in <tt>/proc/[pid]/stat</tt>, read once from
+     * <tt>getconf CLK_TCK</tt>. The kernel reports 100 on all mainstream Linux platforms, which
+     * is used if <tt>getconf</tt> is not available.
+     */
+    private static final long CLOCK_TICKS_PER_SECOND = readClockTicksPerSecond();
+
+    private static final long DEFAULT_CLOCK_TICKS_PER_SECOND = 100;
+
+    // Indexes of utime, stime, cutime and cstime in the fields read by ProcessTree.readStat
+    private static final int FIRST_CPU_TIME_FIELD = 11;
+    private static final int CPU_TIME_FIELDS = 4;
+    private static final int FIRST_CHILDREN_CPU_TIME_FIELD = 13;
+
+    private static final String RSS_LABEL = "VmRSS:";
+    private static final String READ_BYTES_LABEL = "read_bytes:";
+    private static final String WRITE_BYTES_LABEL = "write_bytes:";
+
+    private static final ConcurrentMap<Integer, Sampled> sampled = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService sampler;
+
+    private ResourceSampler() {}
+
+    /**
+     * Starts sampling the process. {@link Sampled#finish()} must be called once the process
+     * has exited.
+     */
+    static Sampled track(Process process) {
+        Optional<Integer> pid = ProcessTree.pidOf(process);
+        if (!pid.isPresent() || !Files.isDirectory(ProcessTree.PROC)) {
+            return new Sampled(-1, 0);
+        }
+
+        Sampled tracked = new Sampled(pid.get(), readWaitedChildrenTicks());
+        sampled.put(pid.get(), tracked);
+        startSampler();
+        return tracked;
+    }
+
+    private static synchronized void startSampler() {
+        if (sampler != null) {
+            return;
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("tmc-process-sampler-%d")
+                .setDaemon(true)
+                .build());
+        sampler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sampleAll();
+                } catch (RuntimeException e) {
+                    log.error("Sampling process resource usage failed", e);
+                }
+            }
+        }, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void sampleAll() {
+        if (sampled.isEmpty()) {
+            return;
+        }
+
+        // Read before the trees, so that a tracked process reaped while they are read is
+        // still included in the children times of later readings.
+        long waitedChildrenTicks = readWaitedChildrenTicks();
+
+        // Without children lists, read the stats of all processes once for every tree
+        Map<Integer, String[]> stats = null;
+        ListMultimap<Integer, Integer> children = null;
+        if (!ProcessTree.CHILDREN_LISTED) {
+            stats = ProcessTree.readAllStats();
+            children = ProcessTree.childrenOf(stats);
+        }
+
+        for (Sampled tracked : sampled.values()) {
+            List<Integer> tree = children == null
+                    ? ProcessTree.descendantsOf(tracked.pid)
+                    : ProcessTree.descendantsOf(tracked.pid, children);
+            tree.add(0, tracked.pid);
+            long cpuTicks = 0;
+            long rssBytes = 0;
+            long readBytes = 0;
+            long writtenBytes = 0;
+            boolean running = true;
+            for (Integer pid : tree) {
+                Path process = ProcessTree.PROC.resolve(pid.toString());
+                Optional<String[]> stat = stats == null
+                        ? ProcessTree.readStat(process)
+                        : Optional.fromNullable(stats.get(pid));
+                if (!stat.isPresent()) {
+                    // A descendant may exit at any time, but without the root there is no tree
+                    running = !pid.equals(tracked.pid);
+                    if (!running) {
+                        break;
+                    }
+                    continue;
+                }
+                cpuTicks += sumCpuTicks(stat.get(), FIRST_CPU_TIME_FIELD, CPU_TIME_FIELDS);
+                rssBytes += readFields(process.resolve("status"), RSS_LABEL)[0] * 1024;
+                long[] io = readFields(process.resolve("io"), READ_BYTES_LABEL, WRITE_BYTES_LABEL);
+                readBytes += io[0];
+                writtenBytes += io[1];
+            }
+            if (running) {
+                tracked.update(cpuTicks, rssBytes, readBytes, writtenBytes, waitedChildrenTicks);
+            }
+        }
+    }
+
+    private static long sumCpuTicks(String[] stat, int first, int count) {
+        long ticks = 0;
+        for (int i = 0; i < count; i++) {
+            ticks += Long.parseLong(stat[first + i]);
+        }
+        return ticks;
+    }
+
+    /**
+     * Returns the CPU times of the children of this JVM that have exited and been waited for,
+     * which grow by the total CPU time of each child process the JDK reaps.
+     */
+    private static long readWaitedChildrenTicks() {
+        Optional<String[]> stat = ProcessTree.readStat(ProcessTree.PROC.resolve("self"));
+        if (!stat.isPresent()) {
+            return 0;
+        }
+        try {
+            return sumCpuTicks(stat.get(), FIRST_CHILDREN_CPU_TIME_FIELD, 2);
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static long ticksToMillis(long ticks) {
+        return ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+    }
+
+    /**
+     * Returns the numbers following the given labels in a <tt>/proc</tt> file, reading the file
+     * once. A number is 0 if the file cannot be read or has no such line.
+     */
+    private static long[] readFields(Path file, String... labels) {
+        long[] values = new long[labels.length];
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < labels.length; i++) {
+                    if (line.startsWith(labels[i])) {
+                        String value = line.substring(labels[i].length()).trim();
+                        int end = value.indexOf(' ');
+                        values[i] = Long.parseLong(end < 0 ? value : value.substring(0, end));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The process exited, or we are not allowed to read the file
+        }
+        return values;
+    }
+
+    private static long readClockTicksPerSecond() {
+        if (!Files.isDirectory(ProcessTree.PROC)) {
+            return DEFAULT_CLOCK_TICKS_PER_SECOND;
+        }
+        try {
+            Process getconf = new ProcessBuilder("getconf", "CLK_TCK").start();
+            getconf.getOutputStream().close();
+            getconf.getErrorStream().close();
+            String output;
+            try (InputStream stdout = getconf.getInputStream()) {
+                output = new String(ByteStreams.toByteArray(stdout), StandardCharsets.UTF_8);
+            }
+            if (getconf.waitFor() == 0) {
+                return Long.parseLong(output.trim());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Unable to read the clock ticks per second, assuming {}",
+                    DEFAULT_CLOCK_TICKS_PER_SECOND, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return DEFAULT_CLOCK_TICKS_PER_SECOND;
+    }
+
+    /**
+     * The usage of a tracked process tree. Each value is the largest seen in any sample, which
+     * keeps the cumulative values from going down when a process exits before its parent has
+     * waited for it.
+     */
+    static final class Sampled {
+
+        private final int pid;
+
+        private long cpuTicks;
+        private long peakRssBytes;
+        private long readBytes;
+        private long writtenBytes;
+
+        // The state at the last sample in which the process was still running
+        private long lastTreeCpuTicks;
+        private long lastWaitedChildrenTicks;
+        private long lastSampleNanos;
+
+        private ResourceUsage usage;
+
+        private Sampled(int pid, long waitedChildrenTicks) {
+            this.pid = pid;
+            this.lastWaitedChildrenTicks = waitedChildrenTicks;
+            this.lastSampleNanos = System.nanoTime();
+        }
+
+        private synchronized void update(long cpuTicks, long rssBytes, long readBytes,
+                                         long writtenBytes, long waitedChildrenTicks) {
+            this.cpuTicks = Math.max(this.cpuTicks, cpuTicks);
+            this.peakRssBytes = Math.max(this.peakRssBytes, rssBytes);
+            this.readBytes = Math.max(this.readBytes, readBytes);
+            this.writtenBytes = Math.max(this.writtenBytes, writtenBytes);
+            this.lastTreeCpuTicks = cpuTicks;
+            this.lastWaitedChildrenTicks = waitedChildrenTicks;
+            this.lastSampleNanos = System.nanoTime();
+        }
+
+        /**
+         * Stops sampling and returns the usage seen, or null if usage cannot be measured on
+         * this platform. Calling this again returns the same usage.
+         */
+        synchronized ResourceUsage finish() {
+            if (pid < 0) {
+                return null;
+            }
+            if (usage == null) {
+                sampled.remove(pid, this);
+                usage = new ResourceUsage(ticksToMillis(Math.max(cpuTicks, exitedCpuTicks())),
+                        peakRssBytes, readBytes, writtenBytes);
+            }
+            return usage;
+        }
+
+        /**
+         * Estimates the CPU time of the process including the time after the last sample. Once
+         * the JDK has reaped the process, its total CPU time, including the children it waited
+         * for, has been added to the children times of this JVM. Other children reaped since the
+         * last sample are included as well, so the estimate is capped at what the tree could
+         * have used since then.
+         */
+        private long exitedCpuTicks() {
+            if (Files.exists(ProcessTree.PROC.resolve(Integer.toString(pid)))) {
+                return 0;
+            }
+            long reaped = readWaitedChildrenTicks() - lastWaitedChildrenTicks;
+            long elapsedTicks = (System.nanoTime() - lastSampleNanos) * CLOCK_TICKS_PER_SECOND
+                    / TimeUnit.SECONDS.toNanos(1);
+            // One tick more per processor, since the times are rounded to whole ticks
+            int processors = Runtime.getRuntime().availableProcessors();
+            return Math.min(reaped, lastTreeCpuTicks + (elapsedTicks + 1) * processors);
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package fi.helsinki.cs.tmc.langs;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import fi.helsinki.cs.tmc.langs.domain.ExerciseBuilder;
 import fi.helsinki.cs.tmc.langs.domain.ExerciseDesc;
 import fi.helsinki.cs.tmc.langs.domain.RunResult;
+import fi.helsinki.cs.tmc.langs.domain.TestResult;
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.io.sandbox.StudentFileAwareSubmissionProcessor;
 import fi.helsinki.cs.tmc.langs.io.sandbox.SubmissionProcessor;
@@ -16,6 +21,7 @@ import fi.helsinki.cs.tmc.langs.utils.TestUtils;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -55,7 +61,7 @@ public class AbstractLanguagePluginTest {
 
         @Override
         public RunResult runTests(Path path) {
-            return null;
+            return runResult;
         }
 
         @Override
@@ -64,6 +70,7 @@ public class AbstractLanguagePluginTest {
         }
     }
 
+    private RunResult runResult;
     private LanguagePlugin plugin;
     private ExerciseBuilder exerciseBuilder;
     private SubmissionProcessor submissionProcessor;
@@ -82,9 +89,19 @@ public class AbstractLanguagePluginTest {
         ImmutableList<Path> dirs = plugin.findExercises(project);
 
         Path pathOne = TestUtils.getPath(getClass(), "ant_project");
-        Path pathTwo = TestUtils.getPath(getClass(), "ant_project/ant_sub_project");
 
-        assertTrue(dirs.contains(pathOne) && dirs.contains(pathTwo));
+        assertTrue(dirs.contains(pathOne));
+    }
+
+    @Test
+    public void findExercisesDoesNotSearchInsideExercises() {
+        Path project = TestUtils.getPath(getClass(), "ant_project");
+
+        ImmutableList<Path> dirs = plugin.findExercises(project);
+
+        Path subProject = TestUtils.getPath(getClass(), "ant_project/ant_sub_project");
+
+        assertFalse(dirs.contains(subProject));
     }
 
     @Test
@@ -129,8 +146,20 @@ public class AbstractLanguagePluginTest {
     public void prepareSubmissionDelegatesRequestToSubmissionProcessor() {
         Path source = Paths.get("source");
         Path target = Paths.get("target");
+        SubmissionProcessor configured = mock(SubmissionProcessor.class);
+        when(submissionProcessor.withStudentFilePolicy(any(StudentFilePolicy.class)))
+                .thenReturn(configured);
 
         plugin.prepareSubmission(source, target);
-        verify(submissionProcessor).moveFiles(source, target);
+        verify(configured).moveFiles(source, target);
+    }
+
+    @Test
+    public void runTestsAsyncCompletesWithResultOfRunTests() throws Exception {
+        runResult = new RunResult(RunResult.Status.PASSED,
+                ImmutableList.<TestResult>of(),
+                ImmutableMap.<String, byte[]>of());
+
+        assertSame(runResult, plugin.runTestsAsync(Paths.get("testPath")).get());
     }
 }
@@ -3,9 +3,13 @@ package fi.helsinki.cs.tmc.langs.domain;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import com.google.common.collect.ImmutableList;
+
 import org.apache.commons.io.FileUtils;
 
 import org.junit.Before;
@@ -14,6 +18,8 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 
 public class ConfigurationTest {
 
@@ -48,17 +54,67 @@ public class ConfigurationTest {
     }
 
     @Test
-    public void testParseOptions() throws IOException {
+    public void testEmptyConfigurationHasNoOptions() {
+        this.configuration = new Configuration();
+
+        assertFalse(configuration.isSet("simple_option"));
+        assertTrue(configuration.getExtraStudentFiles().isEmpty());
+    }
+
+    @Test
+    public void testLoadReusesParsedConfigurationUntilFileChanges() throws IOException {
         Path path = Files.createTempFile("options", ".txt");
         FileUtils.writeStringToFile(path.toFile(), "option: true");
+        Files.setLastModifiedTime(path, FileTime.fromMillis(1000));
 
-        this.configuration = new Configuration();
+        Configuration first = Configuration.load(path);
+        assertSame(first, Configuration.load(path));
+        assertEquals(true, first.get("option").asBoolean());
 
+        FileUtils.writeStringToFile(path.toFile(), "option: false");
+        Files.setLastModifiedTime(path, FileTime.fromMillis(2000));
+
+        Configuration second = Configuration.load(path);
+        assertNotSame(first, second);
+        assertEquals(false, second.get("option").asBoolean());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testParseOptionsReplacesOptionsOfOwnInstance() throws IOException {
+        Path path = Files.createTempFile("options", ".txt");
+        FileUtils.writeStringToFile(path.toFile(), "option: true");
+        Configuration configuration = new Configuration();
         assertFalse(configuration.isSet("option"));
 
         configuration.parseOptions(path);
 
-        assertTrue(configuration.isSet("option"));
         assertEquals(true, configuration.get("option").asBoolean());
     }
+
+    @Test(expected = IllegalStateException.class)
+    @SuppressWarnings("deprecation")
+    public void testParseOptionsRejectsSharedConfiguration() throws IOException {
+        Path path = Files.createTempFile("options", ".txt");
+        FileUtils.writeStringToFile(path.toFile(), "option: true");
+
+        Configuration.load(path).parseOptions(path);
+    }
+
+    @Test
+    public void testLoadOfMissingFileGivesEmptyConfiguration() {
+        Configuration missing = Configuration.load(Paths.get("no", "such", ".tmcproject.yml"));
+
+        assertFalse(missing.isSet("option"));
+    }
+
+    @Test
+    public void testExtraStudentFilesAreParsed() throws IOException {
+        Path path = Files.createTempFile("options", ".txt");
+        FileUtils.writeStringToFile(path.toFile(),
+                "extra_student_files:\n  - src/Extra.java\n  - test/Other.java\n");
+
+        assertEquals(ImmutableList.of("src/Extra.java", "test/Other.java"),
+                Configuration.load(path).getExtraStudentFiles());
+    }
 }
@@ -1,7 +1,9 @@
 package fi.helsinki.cs.tmc.langs.domain;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.google.common.io.Files;
 
@@ -13,8 +15,10 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -84,6 +88,114 @@ public class ExerciseBuilderTest {
         assertFalse(solutionFile.toFile().exists());
     }
 
+    @Test
+    public void filesWithoutMarkersAreLeftUntouched() throws IOException {
+        Path temp = createTemporaryCopyOf(Paths.get("src", "test", "resources", "arith_funcs"));
+        Path plainFile = temp.resolve(Paths.get("src", "Plain.java"));
+        byte[] content = "class Plain {\r\n}".getBytes(StandardCharsets.UTF_8);
+        java.nio.file.Files.write(plainFile, content);
+        FileTime oldTime = FileTime.fromMillis(0);
+        java.nio.file.Files.setLastModifiedTime(plainFile, oldTime);
+
+        exerciseBuilder.prepareStub(temp);
+        exerciseBuilder.prepareSolution(temp);
+
+        assertArrayEquals(content, java.nio.file.Files.readAllBytes(plainFile));
+        assertEquals(oldTime, java.nio.file.Files.getLastModifiedTime(plainFile));
+    }
+
+    @Test
+    public void prepareStubAndSolutionWritesBothTreesWithoutModifyingOriginal()
+            throws IOException {
+        Path originProject = Paths.get("src", "test", "resources", "arith_funcs_solution_file");
+        Path original = createTemporaryCopyOf(originProject);
+        Path stubTarget = Files.createTempDir().toPath();
+        Path solutionTarget = Files.createTempDir().toPath();
+
+        exerciseBuilder.prepareStubAndSolution(original, stubTarget, solutionTarget);
+
+        assertFileLines(Paths.get("src", "test", "resources", "arith_funcs_stub", "src"),
+                stubTarget.resolve("src"));
+        assertFileLines(Paths.get("src", "test", "resources", "arith_funcs_solution", "src"),
+                solutionTarget.resolve("src"));
+        assertFalse(stubTarget.resolve(Paths.get("src", "SolutionFile.java")).toFile().exists());
+        Path solutionFile = solutionTarget.resolve(Paths.get("src", "SolutionFile.java"));
+        assertEquals(2, java.nio.file.Files.readAllLines(solutionFile, Charset.defaultCharset())
+                .size());
+        assertTrue(stubTarget.resolve(Paths.get("lib", "junit-4.10.jar")).toFile().exists());
+        assertTrue(solutionTarget.resolve(Paths.get("lib", "junit-4.10.jar")).toFile().exists());
+        assertFileLines(originProject.resolve("src"), original.resolve("src"));
+    }
+
+    @Test
+    public void incrementalPrepareOnlyProcessesChangedFilesAndDeletesVanishedOutputs()
+            throws IOException {
+        Path original = createTemporaryCopyOf(
+                Paths.get("src", "test", "resources", "arith_funcs_solution_file"));
+        Path outputs = Files.createTempDir().toPath();
+        Path stubTarget = outputs.resolve("stub");
+        Path solutionTarget = outputs.resolve("solution");
+        Path manifest = outputs.resolve("manifest.json");
+
+        exerciseBuilder.prepareStubAndSolution(original, stubTarget, solutionTarget, manifest);
+        assertTrue(manifest.toFile().exists());
+
+        Path stubArith = stubTarget.resolve(Paths.get("src", "Arith.java"));
+        FileTime oldTime = FileTime.fromMillis(0);
+        java.nio.file.Files.setLastModifiedTime(stubArith, oldTime);
+        Path stubJar = stubTarget.resolve(Paths.get("lib", "junit-4.10.jar"));
+        java.nio.file.Files.delete(original.resolve(Paths.get("lib", "junit-4.10.jar")));
+        Path changedFile = original.resolve(Paths.get("src", "SolutionFile.java"));
+        java.nio.file.Files.write(changedFile,
+                "public class SolutionFile {\n}\n".getBytes(StandardCharsets.UTF_8));
+
+        exerciseBuilder.prepareStubAndSolution(original, stubTarget, solutionTarget, manifest);
+
+        assertEquals(oldTime, java.nio.file.Files.getLastModifiedTime(stubArith));
+        assertFalse(stubJar.toFile().exists());
+        assertFalse(solutionTarget.resolve(Paths.get("lib", "junit-4.10.jar")).toFile().exists());
+        assertTrue(stubTarget.resolve(Paths.get("src", "SolutionFile.java")).toFile().exists());
+    }
+
+    @Test
+    public void incrementalPrepareRegeneratesDeletedStub() throws IOException {
+        Path original = createTemporaryCopyOf(
+                Paths.get("src", "test", "resources", "arith_funcs_solution_file"));
+        Path outputs = Files.createTempDir().toPath();
+        Path stubTarget = outputs.resolve("stub");
+        Path solutionTarget = outputs.resolve("solution");
+        Path manifest = outputs.resolve("manifest.json");
+        exerciseBuilder.prepareStubAndSolution(original, stubTarget, solutionTarget, manifest);
+        Path stubArith = stubTarget.resolve(Paths.get("src", "Arith.java"));
+        byte[] expected = java.nio.file.Files.readAllBytes(stubArith);
+
+        java.nio.file.Files.delete(stubArith);
+        exerciseBuilder.prepareStubAndSolution(original, stubTarget, solutionTarget, manifest);
+
+        assertArrayEquals(expected, java.nio.file.Files.readAllBytes(stubArith));
+        assertFalse(stubTarget.resolve(Paths.get("src", "SolutionFile.java")).toFile().exists());
+    }
+
+    @Test
+    public void binaryFilesAreNotTransformed() throws IOException {
+        Path temp = createTemporaryCopyOf(Paths.get("src", "test", "resources", "arith_funcs"));
+        Path binaryFile = temp.resolve(Paths.get("src", "image.bin"));
+        byte[] content = "\u0000// BEGIN SOLUTION\n\u0000\u00ff\n// END SOLUTION\n"
+                .getBytes(StandardCharsets.ISO_8859_1);
+        java.nio.file.Files.write(binaryFile, content);
+        Path stubTarget = Files.createTempDir().toPath();
+        Path solutionTarget = Files.createTempDir().toPath();
+
+        exerciseBuilder.prepareStubAndSolution(temp, stubTarget, solutionTarget);
+        exerciseBuilder.prepareStub(temp);
+
+        assertArrayEquals(content, java.nio.file.Files.readAllBytes(binaryFile));
+        assertArrayEquals(content, java.nio.file.Files.readAllBytes(
+                stubTarget.resolve(Paths.get("src", "image.bin"))));
+        assertArrayEquals(content, java.nio.file.Files.readAllBytes(
+                solutionTarget.resolve(Paths.get("src", "image.bin"))));
+    }
+
     private Path createTemporaryCopyOf(Path path) throws IOException {
         File tempFolder = Files.createTempDir();
         FileUtils.copyDirectory(path.toFile(), tempFolder);
@@ -1,6 +1,8 @@
 package fi.helsinki.cs.tmc.langs.domain;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -20,6 +22,29 @@ public class RunResultTest {
         assertEquals(status, result.status);
         assertEquals(testResults, result.testResults);
         assertEquals(logs, result.logs);
+        assertNull(result.resourceUsage);
+    }
+
+    @Test
+    public void withResourceUsageKeepsOtherValues() {
+        ResourceUsage usage = new ResourceUsage(1, 2, 3, 4);
+        RunResult result = new RunResult(status, testResults, logs).withResourceUsage(usage);
+
+        assertEquals(status, result.status);
+        assertEquals(testResults, result.testResults);
+        assertEquals(logs, result.logs);
+        assertSame(usage, result.resourceUsage);
+    }
+
+    @Test
+    public void resourceUsageOfConsecutiveRunsIsCombined() {
+        ResourceUsage total = new ResourceUsage(10, 200, 30, 40)
+                .plus(new ResourceUsage(1, 500, 3, 4));
+
+        assertEquals(11, total.cpuTimeMillis);
+        assertEquals(500, total.peakRssBytes);
+        assertEquals(33, total.readBytes);
+        assertEquals(44, total.writtenBytes);
     }
 
     @Test(expected = NullPointerException.class)
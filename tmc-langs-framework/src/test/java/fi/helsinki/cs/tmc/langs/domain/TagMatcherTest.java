@@ -0,0 +1,55 @@
+package fi.helsinki.cs.tmc.langs.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.langs.domain.TagMatcher.Match;
+import fi.helsinki.cs.tmc.langs.domain.TagMatcher.Tag;
+
+import org.junit.Test;
+
+public class TagMatcherTest {
+
+    @Test
+    public void lineWithoutCommentPrefixHasNoMatch() {
+        assertSame(TagMatcher.NO_MATCH, TagMatcher.match("return a + b; // a comment"));
+        assertSame(TagMatcher.NO_MATCH, TagMatcher.match("int x = 1;"));
+    }
+
+    @Test
+    public void findsEachTag() {
+        for (Tag tag : Tag.values()) {
+            Match match = TagMatcher.match("    " + tag.getText() + " rest");
+
+            assertTrue(match.contains(tag));
+            for (Tag other : Tag.values()) {
+                if (other != tag) {
+                    assertFalse(match.contains(other));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findsSeveralTagsOnTheSameLine() {
+        Match match = TagMatcher.match("// BEGIN SOLUTION // END SOLUTION");
+
+        assertTrue(match.contains(Tag.BEGIN_SOLUTION));
+        assertTrue(match.contains(Tag.END_SOLUTION));
+        assertFalse(match.isEmpty());
+    }
+
+    @Test
+    public void findsTagInsideLongerCommentPrefix() {
+        assertTrue(TagMatcher.match("/// BEGIN SOLUTION").contains(Tag.BEGIN_SOLUTION));
+    }
+
+    @Test
+    public void reportsPositionOfFirstStubTag() {
+        Match match = TagMatcher.match("        // STUB: return 0; // STUB: again");
+
+        assertEquals(8, match.getStubIndex());
+    }
+}
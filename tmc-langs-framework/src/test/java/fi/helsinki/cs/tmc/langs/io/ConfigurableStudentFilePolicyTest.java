@@ -16,6 +16,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 public class ConfigurableStudentFilePolicyTest {
 
@@ -219,4 +220,24 @@ public class ConfigurableStudentFilePolicyTest {
         newFile.toFile().delete();
         targetFile.toFile().delete();
     }
+
+    @Test
+    public void decidesFromGivenAttributesWithoutAccessingFile() throws IOException {
+        Path path = targetDir.resolve(".tmcproject.yml");
+        FileUtils.write(path.toFile(), "extra_student_files: temp");
+        AttributeAwareStudentFilePolicy policy =
+                (AttributeAwareStudentFilePolicy) studentFilePolicy;
+        BasicFileAttributes fileAttributes = Files.readAttributes(path, BasicFileAttributes.class);
+        BasicFileAttributes directoryAttributes =
+                Files.readAttributes(targetDir, BasicFileAttributes.class);
+
+        // The file does not exist, so only the given attributes tell what it is
+        Path missingFile = sourceDir.resolve("temp");
+
+        assertTrue(policy.isStudentFile(missingFile, sourceDir, fileAttributes));
+        assertFalse(policy.isStudentFile(missingFile, sourceDir, directoryAttributes));
+        assertFalse(policy.isStudentFile(missingFile, sourceDir, null));
+
+        path.toFile().delete();
+    }
 }
@@ -0,0 +1,77 @@
+package fi.helsinki.cs.tmc.langs.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.langs.utils.TestUtils;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ExerciseFinderTest {
+
+    private Path root;
+    private ExerciseFinder finder;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("tmc-exercise-finder");
+        finder = new ExerciseFinder(new Predicate<Path>() {
+            @Override
+            public boolean apply(Path path) {
+                return Files.exists(path.resolve("build.xml"));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestUtils.removeDirRecursively(root);
+    }
+
+    private Path createExercise(String name) throws IOException {
+        Path exercise = root.resolve(name);
+        Files.createDirectories(exercise);
+        Files.createFile(exercise.resolve("build.xml"));
+        return exercise;
+    }
+
+    @Test
+    public void findReturnsExercisesInSortedOrder() throws IOException {
+        Path third = createExercise("week2/c");
+        Path first = createExercise("week1/a");
+        Path second = createExercise("week1/b");
+
+        assertEquals(ImmutableList.of(first, second, third), finder.find(root));
+    }
+
+    @Test
+    public void findDoesNotSearchInsideExercises() throws IOException {
+        Path exercise = createExercise("exercise");
+        createExercise("exercise/nested");
+
+        assertEquals(ImmutableList.of(exercise), finder.find(root));
+    }
+
+    @Test
+    public void findSkipsIgnoredDirectories() throws IOException {
+        createExercise(".git/exercise");
+        createExercise("course/node_modules/exercise");
+        Path exercise = createExercise("course/exercise");
+
+        assertEquals(ImmutableList.of(exercise), finder.find(root));
+    }
+
+    @Test
+    public void findReturnsEmptyListForNonDirectory() {
+        assertTrue(finder.find(root.resolve("no-such-directory")).isEmpty());
+    }
+}
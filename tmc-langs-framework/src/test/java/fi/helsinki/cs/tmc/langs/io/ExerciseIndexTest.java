@@ -0,0 +1,135 @@
+package fi.helsinki.cs.tmc.langs.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.langs.utils.TestUtils;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ExerciseIndexTest {
+
+    private Path root;
+    private Path indexDir;
+    private Path indexFile;
+    private List<Path> classified;
+    private Function<Path, Optional<String>> classifier;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("tmc-exercise-index");
+        indexDir = Files.createTempDirectory("tmc-exercise-index-file");
+        indexFile = indexDir.resolve("index.json");
+        classified = new ArrayList<>();
+        classifier = new Function<Path, Optional<String>>() {
+            @Override
+            public Optional<String> apply(Path path) {
+                synchronized (classified) {
+                    classified.add(path);
+                }
+                if (Files.exists(path.resolve("build.xml"))) {
+                    return Optional.of("ant");
+                }
+                return Optional.absent();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestUtils.removeDirRecursively(root);
+        TestUtils.removeDirRecursively(indexDir);
+    }
+
+    private Path createExercise(String name) throws IOException {
+        Path exercise = root.resolve(name);
+        Files.createDirectories(exercise);
+        Files.createFile(exercise.resolve("build.xml"));
+        return exercise;
+    }
+
+    private void touch(Path directory) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(directory);
+        Files.setLastModifiedTime(directory, FileTime.fromMillis(modified.toMillis() + 2000));
+    }
+
+    @Test
+    public void createdIndexDirectoryIsOnlyAccessibleByOwner() throws IOException {
+        Path nested = indexDir.resolve("cache").resolve("index.json");
+
+        new ExerciseIndex(root, nested, classifier).refresh();
+
+        assertTrue(Files.exists(nested));
+        if (Files.getFileAttributeView(indexDir, PosixFileAttributeView.class) != null) {
+            assertEquals(PosixFilePermissions.fromString("rwx------"),
+                    Files.getPosixFilePermissions(nested.getParent()));
+        }
+    }
+
+    @Test
+    public void refreshFindsExercises() throws IOException {
+        Path first = createExercise("week1/a");
+        Path second = createExercise("week2/b");
+
+        ExerciseIndex index = new ExerciseIndex(root, indexFile, classifier);
+
+        assertEquals(ImmutableMap.of(first, "ant", second, "ant"), index.refresh());
+        assertTrue(Files.exists(indexFile));
+    }
+
+    @Test
+    public void unchangedTreeIsNotClassifiedAgain() throws IOException {
+        createExercise("week1/a");
+        new ExerciseIndex(root, indexFile, classifier).refresh();
+        classified.clear();
+
+        ExerciseIndex reloaded = new ExerciseIndex(root, indexFile, classifier);
+
+        assertEquals(1, reloaded.refresh().size());
+        assertTrue(classified.isEmpty());
+    }
+
+    @Test
+    public void onlyChangedDirectoriesAreClassifiedAgain() throws IOException {
+        Path first = createExercise("week1/a");
+        createExercise("week2/b");
+        ExerciseIndex index = new ExerciseIndex(root, indexFile, classifier);
+        index.refresh();
+        classified.clear();
+
+        Files.delete(root.resolve("week2/b/build.xml"));
+        Files.delete(root.resolve("week2/b"));
+        touch(root.resolve("week2"));
+
+        assertEquals(ImmutableMap.of(first, "ant"), index.refresh());
+        assertTrue(classified.contains(root.resolve("week2")));
+        assertFalse(classified.contains(root.resolve("week1")));
+        assertFalse(classified.contains(first));
+    }
+
+    @Test
+    public void corruptIndexFileIsRebuilt() throws IOException {
+        Path exercise = createExercise("a");
+        Files.write(indexFile, "{not json".getBytes("UTF-8"));
+
+        ExerciseIndex index = new ExerciseIndex(root, indexFile, classifier);
+
+        assertEquals(ImmutableMap.of(exercise, "ant"), index.refresh());
+    }
+}
@@ -0,0 +1,99 @@
+package fi.helsinki.cs.tmc.langs.io;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ExtraStudentFileMatcherTest {
+
+    private final Path root = Paths.get("project").toAbsolutePath();
+
+    @Test
+    public void matchesListedFile() {
+        ExtraStudentFileMatcher matcher =
+                new ExtraStudentFileMatcher(root, ImmutableList.of("test/Extra.java"));
+
+        assertTrue(matcher.matches(root.resolve("test/Extra.java")));
+        assertFalse(matcher.matches(root.resolve("test/Other.java")));
+        assertFalse(matcher.matches(root.resolve("Extra.java")));
+    }
+
+    @Test
+    public void matchesRelativeAndUnnormalizedPaths() {
+        ExtraStudentFileMatcher matcher =
+                new ExtraStudentFileMatcher(Paths.get("project"), ImmutableList.of("a/b.txt"));
+
+        assertTrue(matcher.matches(Paths.get("project", "a", ".", "b.txt")));
+        assertTrue(matcher.matches(root.resolve("c/../a/b.txt")));
+    }
+
+    @Test
+    public void absoluteEntryIsNotReinterpretedRelativeToRoot() {
+        Path absolute = root.resolveSibling("shared").resolve("b.txt");
+        ExtraStudentFileMatcher matcher =
+                new ExtraStudentFileMatcher(root, ImmutableList.of(absolute.toString()));
+
+        assertTrue(matcher.matches(absolute));
+        assertFalse(matcher.matches(root.resolve(root.getRoot().relativize(absolute))));
+    }
+
+    @Test
+    public void matchesLiteralNamesWithBracketsAndBraces() {
+        ExtraStudentFileMatcher matcher = new ExtraStudentFileMatcher(root,
+                ImmutableList.of("data[1].txt", "{x}.json", "a*b?.txt"));
+
+        assertTrue(matcher.matches(root.resolve("data[1].txt")));
+        assertTrue(matcher.matches(root.resolve("{x}.json")));
+        assertTrue(matcher.matches(root.resolve("a*b?.txt")));
+        assertFalse(matcher.matches(root.resolve("data1.txt")));
+        assertFalse(matcher.matches(root.resolve("x.json")));
+        assertFalse(matcher.matches(root.resolve("aXbY.txt")));
+    }
+
+    @Test
+    public void plainDirectoryEntryMatchesOnlyItself() {
+        ExtraStudentFileMatcher matcher =
+                new ExtraStudentFileMatcher(root, ImmutableList.of("data"));
+
+        assertTrue(matcher.matches(root.resolve("data")));
+        assertFalse(matcher.matches(root.resolve("data/input.txt")));
+    }
+
+    @Test
+    public void matchesEverythingUnderListedDirectory() {
+        ExtraStudentFileMatcher matcher =
+                new ExtraStudentFileMatcher(root, ImmutableList.of("data/"));
+
+        assertTrue(matcher.matches(root.resolve("data/input.txt")));
+        assertTrue(matcher.matches(root.resolve("data/nested/input.txt")));
+        assertFalse(matcher.matches(root.resolve("database.txt")));
+    }
+
+    @Test
+    public void matchesGlobsRelativeToRoot() {
+        ExtraStudentFileMatcher matcher =
+                new ExtraStudentFileMatcher(root,
+                        ImmutableList.of("glob:src/**/*.txt", "glob:*.md"));
+
+        assertTrue(matcher.matches(root.resolve("src/notes/todo.txt")));
+        assertTrue(matcher.matches(root.resolve("README.md")));
+        assertFalse(matcher.matches(root.resolve("src/todo.java")));
+        assertFalse(matcher.matches(root.resolve("docs/README.md")));
+    }
+
+    @Test
+    public void doesNotMatchOutsideRoot() {
+        ExtraStudentFileMatcher matcher =
+                new ExtraStudentFileMatcher(root, ImmutableList.of("glob:*.md", "data/"));
+
+        assertFalse(matcher.matches(root.resolveSibling("README.md")));
+        assertFalse(matcher.matches(root.resolveSibling("data").resolve("input.txt")));
+        assertFalse(matcher.matches(root));
+    }
+}
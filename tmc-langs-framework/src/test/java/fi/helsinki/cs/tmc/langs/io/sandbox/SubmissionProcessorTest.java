@@ -1,8 +1,11 @@
 package fi.helsinki.cs.tmc.langs.io.sandbox;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import fi.helsinki.cs.tmc.langs.io.ConfigurableStudentFilePolicy;
+
 import org.apache.commons.io.FileUtils;
 
 import org.junit.After;
@@ -11,7 +14,11 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class SubmissionProcessorTest {
 
@@ -97,4 +104,73 @@ public class SubmissionProcessorTest {
         assertTrue(Files.exists(targetFile));
         assertTrue(Files.exists(targetSubFile));
     }
+
+    @Test
+    public void symbolicLinksToDirectoriesAndDanglingLinksAreNotStudentFiles()
+            throws IOException {
+        assertSymbolicLinksAreNotMoved(false);
+    }
+
+    @Test
+    public void parallelMoveFilesDoesNotMoveSymbolicLinksToDirectoriesOrDanglingLinks()
+            throws IOException {
+        assertSymbolicLinksAreNotMoved(true);
+    }
+
+    private void assertSymbolicLinksAreNotMoved(boolean parallel) throws IOException {
+        Path directoryLink = Files.createSymbolicLink(sourceDir.resolve("dirlink"), subSourceDir);
+        Path danglingLink = Files.createSymbolicLink(sourceDir.resolve("dangling"),
+                sourceDir.resolve("missing"));
+        processor.setStudentFilePolicy(new ConfigurableStudentFilePolicy(sourceDir) {
+            @Override
+            public boolean isStudentSourceFile(Path path) {
+                return true;
+            }
+        });
+        processor.setParallel(parallel);
+
+        try {
+            processor.moveFiles(sourceDir, targetDir);
+
+            assertTrue(Files.exists(targetDir.resolve(sourceFile.getFileName())));
+            assertFalse(Files.exists(targetDir.resolve("dirlink"), LinkOption.NOFOLLOW_LINKS));
+            assertFalse(Files.exists(targetDir.resolve("dangling"), LinkOption.NOFOLLOW_LINKS));
+        } finally {
+            Files.delete(directoryLink);
+            Files.delete(danglingLink);
+        }
+    }
+
+    @Test
+    public void parallelMoveFilesMovesThroughMoveFile() {
+        final List<Path> moved = Collections.synchronizedList(new ArrayList<Path>());
+        processor = new StudentFileAwareSubmissionProcessor() {
+            @Override
+            protected void moveFile(Path sourceRoot, Path sourceFile, Path target) {
+                moved.add(sourceFile);
+            }
+        };
+        processor.setParallel(true);
+
+        processor.moveFiles(sourceDir, targetDir);
+
+        assertEquals(2, moved.size());
+        assertTrue(moved.contains(sourceFile));
+        assertTrue(moved.contains(subSourceFile));
+        assertTrue(Files.exists(sourceFile));
+    }
+
+    @Test
+    public void parallelMoveFilesMovesAllFilesInDirectory() {
+        processor.setParallel(true);
+        processor.moveFiles(sourceDir, targetDir);
+
+        Path targetFile = targetDir.resolve(sourceFile.getFileName());
+        Path targetSubFile = targetDir.resolve(sourceDir.relativize(subSourceFile));
+
+        assertTrue(Files.exists(targetFile));
+        assertTrue(Files.exists(targetSubFile));
+        assertFalse(Files.exists(sourceFile));
+        assertFalse(Files.exists(subSourceFile));
+    }
 }
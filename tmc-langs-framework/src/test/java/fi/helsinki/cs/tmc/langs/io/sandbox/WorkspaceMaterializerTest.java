@@ -0,0 +1,119 @@
+package fi.helsinki.cs.tmc.langs.io.sandbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import fi.helsinki.cs.tmc.langs.io.ConfigurableStudentFilePolicy;
+import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+
+public class WorkspaceMaterializerTest {
+
+    private Path rootPath;
+    private Path template;
+    private Path submission;
+    private Path workspace;
+
+    private WorkspaceMaterializer materializer;
+
+    @Before
+    public void setUp() throws IOException {
+        rootPath = Files.createTempDirectory("tmc-test-workspacematerializertest");
+        template = rootPath.resolve("template");
+        submission = rootPath.resolve("submission");
+        workspace = rootPath.resolve("workspace");
+
+        write(template.resolve("src/Main.java"), "template main");
+        write(template.resolve("test/MainTest.java"), "template test");
+        write(submission.resolve("src/Main.java"), "student main");
+        write(submission.resolve("src/Helper.java"), "student helper");
+        write(submission.resolve("test/MainTest.java"), "student test");
+
+        materializer = new WorkspaceMaterializer(new StudentFilePolicy() {
+            @Override
+            public boolean isStudentFile(Path path, Path projectRootPath) {
+                return projectRootPath.relativize(path).startsWith("src");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(rootPath.toFile());
+    }
+
+    @Test
+    public void workspaceContainsTemplateWithStudentFiles() throws IOException {
+        materializer.materialize(template, submission, workspace);
+
+        assertEquals("student main", read(workspace.resolve("src/Main.java")));
+        assertEquals("student helper", read(workspace.resolve("src/Helper.java")));
+        assertEquals("template test", read(workspace.resolve("test/MainTest.java")));
+    }
+
+    @Test
+    public void writableTemplateFilesAreCopiedAndTemplateIsNotModified() throws IOException {
+        materializer.materialize(template, submission, workspace);
+
+        Path workspaceTest = workspace.resolve("test/MainTest.java");
+        assertFalse(Files.isSameFile(template.resolve("test/MainTest.java"), workspaceTest));
+        write(workspaceTest, "overwritten by graded code");
+        assertEquals("template test", read(template.resolve("test/MainTest.java")));
+        assertEquals("template main", read(template.resolve("src/Main.java")));
+        assertFalse(Files.exists(template.resolve("src/Helper.java")));
+    }
+
+    @Test
+    public void symbolicLinksToDirectoriesAndDanglingLinksAreNotCopied() throws IOException {
+        Files.createSymbolicLink(submission.resolve("src/dirlink"), submission.resolve("test"));
+        Files.createSymbolicLink(submission.resolve("src/dangling"),
+                submission.resolve("src/missing"));
+        materializer = new WorkspaceMaterializer(new ConfigurableStudentFilePolicy(submission) {
+            @Override
+            public boolean isStudentSourceFile(Path path) {
+                return true;
+            }
+        });
+
+        materializer.materialize(template, submission, workspace);
+
+        assertEquals("student helper", read(workspace.resolve("src/Helper.java")));
+        assertFalse(Files.exists(workspace.resolve("src/dirlink"), LinkOption.NOFOLLOW_LINKS));
+        assertFalse(Files.exists(workspace.resolve("src/dangling"), LinkOption.NOFOLLOW_LINKS));
+    }
+
+    @Test
+    public void materializingAgainReplacesPreviousWorkspace() throws IOException {
+        materializer.materialize(template, submission, workspace);
+        write(workspace.resolve("build/Main.class"), "stale build output");
+        write(submission.resolve("src/Main.java"), "student main v2");
+        Files.delete(submission.resolve("src/Helper.java"));
+
+        materializer.materialize(template, submission, workspace);
+
+        assertEquals("student main v2", read(workspace.resolve("src/Main.java")));
+        assertEquals("template main", read(template.resolve("src/Main.java")));
+        assertFalse(Files.exists(workspace.resolve("build")));
+        assertFalse(Files.exists(workspace.resolve("src/Helper.java")));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
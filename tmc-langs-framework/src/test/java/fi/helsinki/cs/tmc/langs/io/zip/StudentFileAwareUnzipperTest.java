@@ -1,24 +1,36 @@
 package fi.helsinki.cs.tmc.langs.io.zip;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.utils.TestUtils;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.FileVisitor;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class StudentFileAwareUnzipperTest {
 
@@ -103,6 +115,39 @@ public class StudentFileAwareUnzipperTest {
         assertTrue(Files.exists(tmpDir.resolve("testDirectory").resolve("dir")));
     }
 
+    @Test
+    public void unzippingFromBytesUnzipsZipWithSubDirsAndFiles() throws IOException {
+        unzipper.unzip(Files.readAllBytes(TEST_DIR_ZIP), tmpDir);
+
+        assertTrue(Files.exists(tmpDir.resolve("testDirectory").resolve("testFile.txt")));
+        assertTrue(Files.exists(tmpDir.resolve("testDirectory").resolve("dir")));
+    }
+
+    @Test
+    public void unzippingFromStreamUnzipsZipWithoutClosingStream() throws IOException {
+        final AtomicBoolean closed = new AtomicBoolean();
+        try (InputStream input = Files.newInputStream(TEST_DIR_ZIP)) {
+            unzipper.unzip(new FilterInputStream(input) {
+                @Override
+                public void close() throws IOException {
+                    closed.set(true);
+                    super.close();
+                }
+            }, tmpDir);
+        }
+
+        assertFalse(closed.get());
+        assertTrue(Files.exists(tmpDir.resolve("testDirectory").resolve("testFile.txt")));
+    }
+
+    @Test
+    public void unzippingFromChannelUnzipsZipWithSubDirsAndFiles() throws IOException {
+        unzipper.unzip(Files.newByteChannel(TEST_DIR_ZIP), tmpDir);
+
+        assertTrue(Files.exists(tmpDir.resolve("testDirectory").resolve("testFile.txt")));
+        assertTrue(Files.exists(tmpDir.resolve("testDirectory").resolve("dir")));
+    }
+
     @Test
     public void unzipperUnzipsNonExistentStudentFiles() throws IOException {
         unzipper = new StudentFileAwareUnzipper(getEverythingIsStudentFilePolicy());
@@ -154,6 +199,96 @@ public class StudentFileAwareUnzipperTest {
         assertTrue(originalSize != Files.size(testFile));
     }
 
+    @Test
+    public void parallelUnzipperExtractsAllFilesWithoutOverwritingStudentFiles()
+            throws IOException {
+        Path zip = tmpDir.resolve("many.zip");
+        try (ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(zip.toFile())) {
+            for (int i = 0; i < 100; i++) {
+                zipStream.putArchiveEntry(new ZipArchiveEntry("project/dir" + (i % 7) + "/" + i));
+                zipStream.write(("content " + i).getBytes(StandardCharsets.UTF_8));
+                zipStream.closeArchiveEntry();
+            }
+        }
+        Path target = tmpDir.resolve("target");
+        Path studentFile = target.resolve("project").resolve("dir3").resolve("3");
+        Files.createDirectories(studentFile.getParent());
+        Files.write(studentFile, "student".getBytes(StandardCharsets.UTF_8));
+
+        StudentFileAwareUnzipper parallelUnzipper = new StudentFileAwareUnzipper(
+                new StudentFilePolicy() {
+                    @Override
+                    public boolean isStudentFile(Path path, Path projectRootPath) {
+                        return path.getFileName().toString().equals("3");
+                    }
+                });
+        parallelUnzipper.setParallel(true);
+        parallelUnzipper.unzip(zip, target);
+
+        for (int i = 0; i < 100; i++) {
+            Path file = target.resolve("project").resolve("dir" + (i % 7)).resolve("" + i);
+            String expected = i == 3 ? "student" : "content " + i;
+            assertEquals(expected, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void unzipperRejectsEntriesOutsideOfTarget() throws IOException {
+        assertEntryOutsideOfTargetIsRejected(false);
+    }
+
+    @Test
+    public void parallelUnzipperRejectsEntriesOutsideOfTarget() throws IOException {
+        assertEntryOutsideOfTargetIsRejected(true);
+    }
+
+    private void assertEntryOutsideOfTargetIsRejected(boolean parallel) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(bytes)) {
+            zipStream.putArchiveEntry(new ZipArchiveEntry("project/../../escaped.txt"));
+            zipStream.write("escaped".getBytes(StandardCharsets.UTF_8));
+            zipStream.closeArchiveEntry();
+        }
+        Path target = tmpDir.resolve("target");
+
+        StudentFileAwareUnzipper slipUnzipper =
+                new StudentFileAwareUnzipper(getNothingIsStudentFilePolicy());
+        slipUnzipper.setParallel(parallel);
+        try {
+            slipUnzipper.unzip(bytes.toByteArray(), target);
+            fail("Entry outside of the target should have been rejected");
+        } catch (IOException expected) {
+            // expected
+        }
+
+        assertFalse(Files.exists(tmpDir.resolve("escaped.txt")));
+    }
+
+    @Test
+    public void incrementalUnzipperOnlyRewritesChangedFiles() throws IOException {
+        StudentFileAwareUnzipper incrementalUnzipper =
+                new StudentFileAwareUnzipper(getNothingIsStudentFilePolicy());
+        incrementalUnzipper.setIncremental(true);
+        incrementalUnzipper.unzip(TEST_DIR_ZIP, tmpDir);
+
+        Path testFile = tmpDir.resolve("testDirectory").resolve("testFile.txt");
+        byte[] originalContent = Files.readAllBytes(testFile);
+        FileTime oldTime = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(testFile, oldTime);
+
+        incrementalUnzipper.unzip(TEST_DIR_ZIP, tmpDir);
+
+        assertEquals(oldTime, Files.getLastModifiedTime(testFile));
+
+        Files.write(testFile, "changed".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(testFile, oldTime);
+
+        incrementalUnzipper.unzip(TEST_DIR_ZIP, tmpDir);
+
+        assertArrayEquals(originalContent, Files.readAllBytes(testFile));
+        assertNotEquals(oldTime, Files.getLastModifiedTime(testFile));
+    }
+
     private StudentFilePolicy getNothingIsStudentFilePolicy() {
         return new StudentFilePolicy() {
             @Override
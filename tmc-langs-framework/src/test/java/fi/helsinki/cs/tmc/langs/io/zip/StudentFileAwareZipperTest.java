@@ -1,25 +1,39 @@
 package fi.helsinki.cs.tmc.langs.io.zip;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import fi.helsinki.cs.tmc.langs.io.EverythingIsStudentFileStudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.utils.TestUtils;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.FileVisitor;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
@@ -117,6 +131,122 @@ public class StudentFileAwareZipperTest {
         actual.close();
     }
 
+    @Test
+    public void zipperStreamsFolderToOutputStreamWithoutClosingIt() throws IOException {
+        Path emptyDir = (TEST_DIR.resolve("dir"));
+        if (Files.notExists(emptyDir)) {
+            Files.createDirectory(emptyDir);
+        }
+
+        Path actualPath = tmpDir.resolve("streamed.zip");
+        try (OutputStream output = Files.newOutputStream(actualPath)) {
+            zipper.zip(TEST_DIR, output);
+            // Still writable after zipping
+            output.write(new byte[0]);
+        }
+
+        ZipFile expected = new ZipFile(TEST_DIR_ZIP.toFile());
+        ZipFile actual = new ZipFile(actualPath.toFile());
+
+        assertZipsEqualDecompressed(expected, actual);
+
+        expected.close();
+        actual.close();
+    }
+
+    @Test
+    public void zipperStreamsFolderToChannelWithoutClosingIt() throws IOException {
+        Path emptyDir = (TEST_DIR.resolve("dir"));
+        if (Files.notExists(emptyDir)) {
+            Files.createDirectory(emptyDir);
+        }
+
+        Path actualPath = tmpDir.resolve("channel.zip");
+        try (WritableByteChannel channel = Files.newByteChannel(actualPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            zipper.zip(TEST_DIR, channel);
+            assertTrue(channel.isOpen());
+        }
+
+        ZipFile expected = new ZipFile(TEST_DIR_ZIP.toFile());
+        ZipFile actual = new ZipFile(actualPath.toFile());
+
+        assertZipsEqualDecompressed(expected, actual);
+
+        expected.close();
+        actual.close();
+    }
+
+    @Test
+    public void parallelZipperZipsSameEntriesAsSequentialZipper() throws IOException {
+        Path emptyDir = (TEST_DIR.resolve("dir"));
+        if (Files.notExists(emptyDir)) {
+            Files.createDirectory(emptyDir);
+        }
+
+        Path sequentialPath = tmpDir.resolve("sequential.zip");
+        Files.write(sequentialPath, zipper.zip(TEST_DIR));
+
+        StudentFileAwareZipper parallelZipper =
+                new StudentFileAwareZipper(new EverythingIsStudentFileStudentFilePolicy());
+        parallelZipper.setParallel(true);
+        Path parallelPath = tmpDir.resolve("parallel.zip");
+        Files.write(parallelPath, parallelZipper.zip(TEST_DIR));
+
+        try (ZipFile sequential = new ZipFile(sequentialPath.toFile());
+                ZipFile parallel = new ZipFile(parallelPath.toFile())) {
+            Map<String, byte[]> sequentialContents = readContents(sequential);
+            Map<String, byte[]> parallelContents = readContents(parallel);
+
+            assertEquals(sequentialContents.keySet(), parallelContents.keySet());
+            for (String name : sequentialContents.keySet()) {
+                assertArrayEquals(name, sequentialContents.get(name), parallelContents.get(name));
+            }
+        }
+    }
+
+    @Test
+    public void deterministicZipperGivesSameBytesAndDigestForSameFiles() throws IOException {
+        Path project = tmpDir.resolve("project");
+        Files.createDirectories(project.resolve("src"));
+        Path source = project.resolve("src").resolve("Main.java");
+        Files.write(source, "class Main {}".getBytes(StandardCharsets.UTF_8));
+        Files.write(project.resolve("README"), "readme".getBytes(StandardCharsets.UTF_8));
+
+        StudentFileAwareZipper deterministicZipper =
+                new StudentFileAwareZipper(new EverythingIsStudentFileStudentFilePolicy());
+        deterministicZipper.setDeterministic(true);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        HashCode firstDigest = deterministicZipper.zipWithDigest(project, first);
+
+        Files.setLastModifiedTime(source, FileTime.fromMillis(0));
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        HashCode secondDigest = deterministicZipper.zipWithDigest(project, second);
+
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+        assertEquals(firstDigest, secondDigest);
+        assertEquals(Hashing.sha256().hashBytes(first.toByteArray()), firstDigest);
+
+        Files.write(source, "class Main { }".getBytes(StandardCharsets.UTF_8));
+        HashCode changedDigest =
+                deterministicZipper.zipWithDigest(project, new ByteArrayOutputStream());
+
+        assertNotEquals(firstDigest, changedDigest);
+    }
+
+    private Map<String, byte[]> readContents(ZipFile zip) throws IOException {
+        Map<String, byte[]> contents = new HashMap<>();
+        Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry entry = entries.nextElement();
+            try (InputStream input = zip.getInputStream(entry)) {
+                contents.put(entry.getName(), IOUtils.toByteArray(input));
+            }
+        }
+        return contents;
+    }
+
     private void assertZipsEqualDecompressed(ZipFile expected, ZipFile actual) throws IOException {
 
         Map<String, ZipArchiveEntry> expectedEntries = new HashMap<>();
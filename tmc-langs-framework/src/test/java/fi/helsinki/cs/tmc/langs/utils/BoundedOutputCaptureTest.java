@@ -0,0 +1,69 @@
+package fi.helsinki.cs.tmc.langs.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class BoundedOutputCaptureTest {
+
+    @Test
+    public void outputWithinLimitsIsKeptWhole() {
+        BoundedOutputCapture capture = new BoundedOutputCapture(4, 4, false);
+        write(capture, "abcdefgh");
+        capture.close();
+
+        assertEquals("abcdefgh", capture.getOutput());
+        assertFalse(capture.isTruncated());
+        assertNull(capture.getSpillFile());
+    }
+
+    @Test
+    public void outputBetweenHeadAndTailIsDropped() {
+        BoundedOutputCapture capture = new BoundedOutputCapture(3, 3, false);
+        write(capture, "abc");
+        write(capture, "de");
+        write(capture, "fgh");
+        write(capture, "ij");
+        capture.close();
+
+        assertTrue(capture.isTruncated());
+        assertEquals("abc\n[... 4 bytes truncated ...]\nhij", capture.getOutput());
+    }
+
+    @Test
+    public void writesLongerThanTailKeepTheirEnd() {
+        BoundedOutputCapture capture = new BoundedOutputCapture(2, 3, false);
+        write(capture, "abcdefghij");
+        capture.close();
+
+        assertEquals("ab\n[... 5 bytes truncated ...]\nhij", capture.getOutput());
+    }
+
+    @Test
+    public void outputBeyondHeadIsSpilled() throws IOException {
+        BoundedOutputCapture capture = new BoundedOutputCapture(2, 2, true);
+        write(capture, "abcdefg");
+        capture.close();
+
+        Path spillFile = capture.getSpillFile();
+        try {
+            assertEquals("cdefg",
+                    new String(Files.readAllBytes(spillFile), StandardCharsets.UTF_8));
+        } finally {
+            Files.delete(spillFile);
+        }
+    }
+
+    private static void write(BoundedOutputCapture capture, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        capture.write(bytes, 0, bytes.length);
+    }
+}
@@ -1,13 +1,22 @@
 package fi.helsinki.cs.tmc.langs.utils;
 
+import fi.helsinki.cs.tmc.langs.domain.ResourceUsage;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
 import junit.framework.TestCase;
 
 import org.apache.commons.io.FileUtils;
 
 import org.junit.Test;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class ProcessRunnerTest extends TestCase {
 
@@ -53,4 +62,134 @@ public class ProcessRunnerTest extends TestCase {
         String error = runner.call().errorOutput;
         assertTrue(error.contains("version"));
     }
+
+    @Test
+    public void testAsyncProcessHasCorrectStatus() throws Exception {
+        ProcessRunner runner = new ProcessRunner(new String[]{"java", "-version"}, this.folder);
+        ListenableFuture<ProcessResult> result = runner.callAsync();
+        assertEquals(0, result.get(30, TimeUnit.SECONDS).statusCode);
+    }
+
+    @Test
+    public void testAsyncProcessFailsWhenCommandDoesNotExist() throws Exception {
+        ProcessRunner runner = new ProcessRunner(new String[]{"no-such-command"}, this.folder);
+        try {
+            runner.callAsync().get(30, TimeUnit.SECONDS);
+            fail("Expected the process to fail to start");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testLargeOutputIsCapturedCompletely() throws Exception {
+        ProcessRunner runner = new ProcessRunner(new String[]{"seq", "1", "100000"}, this.folder);
+        String output = runner.call().output;
+        assertTrue(output.startsWith("1\n2\n"));
+        assertTrue(output.endsWith("\n100000\n"));
+        assertEquals(100000, output.split("\n").length);
+    }
+
+    @Test
+    public void testConcurrentProcessesDoNotStartThreadsPerProcess() throws Exception {
+        new ProcessRunner(new String[]{"true"}, this.folder).call();
+        int threadsBefore = Thread.activeCount();
+
+        List<ListenableFuture<ProcessResult>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(new ProcessRunner(new String[]{"sleep", "0.5"}, this.folder).callAsync());
+        }
+        assertTrue(Thread.activeCount() - threadsBefore < 5);
+
+        for (ListenableFuture<ProcessResult> result : results) {
+            assertEquals(0, result.get(30, TimeUnit.SECONDS).statusCode);
+        }
+    }
+
+    @Test
+    public void testOutputBeyondLimitsIsTruncated() throws Exception {
+        ProcessRunner runner = new ProcessRunner(new String[]{"seq", "1", "100000"}, this.folder);
+        runner.setOutputLimits(6, 7);
+        ProcessResult result = runner.call();
+        assertTrue(result.outputTruncated);
+        assertFalse(result.errorOutputTruncated);
+        assertTrue(result.output.startsWith("1\n2\n3\n"));
+        assertTrue(result.output.endsWith("\n100000\n"));
+    }
+
+    @Test
+    public void testProcessIsKilledWithDescendantsAfterTimeout() throws Exception {
+        Path marker = folder.resolve("marker");
+        ProcessRunner runner = new ProcessRunner(new String[]{"sh", "-c",
+            "(sleep 2; touch " + marker + ") & sleep 30"}, this.folder);
+        runner.setTimeout(200, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        ProcessResult result = runner.call();
+        assertTrue(result.timedOut);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+        Thread.sleep(2500);
+        assertFalse(Files.exists(marker));
+    }
+
+    @Test
+    public void testDescendantsForkedWhileKillingAreKilled() throws Exception {
+        Path marker = folder.resolve("marker");
+        ProcessRunner runner = new ProcessRunner(new String[]{"sh", "-c",
+            "while true; do (sleep 1; touch " + marker + ") & sleep 0.002; done"}, this.folder);
+        runner.setTimeout(200, TimeUnit.MILLISECONDS);
+
+        ProcessResult result = runner.call();
+        assertTrue(result.timedOut);
+
+        Thread.sleep(1500);
+        assertFalse(Files.exists(marker));
+    }
+
+    @Test
+    public void testProcessFinishingInTimeIsNotTimedOut() throws Exception {
+        ProcessRunner runner = new ProcessRunner(new String[]{"java", "-version"}, this.folder);
+        runner.setTimeout(30, TimeUnit.SECONDS);
+        ProcessResult result = runner.call();
+        assertFalse(result.timedOut);
+        assertEquals(0, result.statusCode);
+    }
+
+    @Test
+    public void testResourceUsageOfProcessTreeIsMeasured() throws Exception {
+        ProcessRunner runner = new ProcessRunner(new String[]{"sh", "-c",
+            "sh -c 'i=0; while [ $i -lt 500000 ]; do i=$((i+1)); done'"}, this.folder);
+        ResourceUsage usage = runner.call().resourceUsage;
+
+        assertNotNull(usage);
+        assertTrue(usage.cpuTimeMillis > 0);
+        assertTrue(usage.peakRssBytes > 0);
+    }
+
+    @Test
+    public void testCpuTimeAfterLastSampleIsMeasured() throws Exception {
+        ProcessRunner runner = new ProcessRunner(new String[]{"sh", "-c",
+            "i=0; while [ $i -lt 50000 ]; do i=$((i+1)); done"}, this.folder);
+        ResourceUsage usage = runner.call().resourceUsage;
+
+        assertNotNull(usage);
+        assertTrue(usage.cpuTimeMillis > 0);
+    }
+
+    @Test
+    public void testBackgroundDescendantHoldingOutputDoesNotBlockLaterRuns() throws Exception {
+        ProcessRunner orphaning = new ProcessRunner(new String[]{"sh", "-c",
+            "echo started; sleep 60 &"}, this.folder);
+        ProcessResult orphaned = orphaning.callAsync().get(10, TimeUnit.SECONDS);
+        assertEquals(0, orphaned.statusCode);
+        assertEquals("started\n", orphaned.output);
+
+        for (int i = 0; i < 3; i++) {
+            ProcessRunner runner = new ProcessRunner(new String[]{"echo", "run " + i},
+                    this.folder);
+            ProcessResult result = runner.callAsync().get(10, TimeUnit.SECONDS);
+            assertEquals("run " + i + "\n", result.output);
+        }
+    }
 }
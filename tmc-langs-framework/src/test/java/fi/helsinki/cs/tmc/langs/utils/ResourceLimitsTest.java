@@ -0,0 +1,86 @@
+package fi.helsinki.cs.tmc.langs.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.langs.domain.Configuration;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class ResourceLimitsTest {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("tmc-resource-limits");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Test
+    public void configurationWithoutLimitsHasNoLimits() throws IOException {
+        Path config = writeConfig("extra_student_files: []\n");
+        ResourceLimits limits = ResourceLimits.fromConfiguration(Configuration.load(config));
+
+        assertSame(ResourceLimits.NONE, limits);
+        List<String> command = ImmutableList.of("true");
+        assertSame(command, limits.wrap(command));
+    }
+
+    @Test
+    public void limitsAreReadFromConfiguration() throws IOException {
+        Path config = writeConfig("resource_limits:\n  cpu_time: 5\n  file_size: 1000\n");
+        ResourceLimits limits = ResourceLimits.fromConfiguration(Configuration.load(config));
+
+        List<String> wrapped = limits.wrap(ImmutableList.of("echo", "hello"));
+        assertNotEquals(ImmutableList.of("echo", "hello"), wrapped);
+        assertEquals(ImmutableList.of("echo", "hello"),
+                wrapped.subList(wrapped.size() - 2, wrapped.size()));
+    }
+
+    @Test
+    public void wallTimeIsReadFromConfigurationButDoesNotWrapTheCommand() throws IOException {
+        Path config = writeConfig("resource_limits:\n  wall_time: 30\n");
+        ResourceLimits limits = ResourceLimits.fromConfiguration(Configuration.load(config));
+
+        assertEquals(Optional.of(30L), limits.getWallTimeSeconds());
+        List<String> command = ImmutableList.of("true");
+        assertSame(command, limits.wrap(command));
+    }
+
+    @Test
+    public void fileSizeLimitIsEnforced() throws Exception {
+        ProcessRunner runner = new ProcessRunner(new String[]{"sh", "-c",
+            "head -c 100000 /dev/zero > out"}, folder);
+        runner.setResourceLimits(ResourceLimits.NONE.withFileSize(4096));
+        ProcessResult result = runner.call();
+
+        assertNotEquals(0, result.statusCode);
+        assertTrue(Files.size(folder.resolve("out")) <= 4096);
+    }
+
+    private Path writeConfig(String content) throws IOException {
+        Path config = folder.resolve(".tmcproject.yml");
+        Files.write(config, content.getBytes(StandardCharsets.UTF_8));
+        return config;
+    }
+}
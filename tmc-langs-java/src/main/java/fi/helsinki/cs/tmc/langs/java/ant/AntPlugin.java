@@ -9,9 +9,11 @@ import fi.helsinki.cs.tmc.langs.java.ClassPath;
 import fi.helsinki.cs.tmc.langs.java.exception.TestRunnerException;
 import fi.helsinki.cs.tmc.langs.java.exception.TestScannerException;
 import fi.helsinki.cs.tmc.langs.java.testscanner.TestScanner;
+import fi.helsinki.cs.tmc.langs.utils.ResourceLimits;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DefaultLogger;
@@ -52,6 +54,12 @@ public class AntPlugin extends AbstractJavaPlugin {
 
     private static final Logger log = LoggerFactory.getLogger(AntPlugin.class);
 
+    /**
+     * Files whose presence, relative to the project root, marks a project of this type. Shared
+     * with the project type detection of the command line utility.
+     */
+    public static final ImmutableList<Path> EXERCISE_MARKERS = ImmutableList.of(BUILD_FILE);
+
     /**
      * Create a new AntPlugin.
      */
@@ -66,7 +74,12 @@ public class AntPlugin extends AbstractJavaPlugin {
 
     @Override
     public boolean isExerciseTypeCorrect(Path path) {
-        return Files.exists(path.resolve(BUILD_FILE));
+        for (Path marker : EXERCISE_MARKERS) {
+            if (Files.exists(path.resolve(marker))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -171,7 +184,9 @@ public class AntPlugin extends AbstractJavaPlugin {
                 resultFile,
                 classPath,
                 exercise.get());
-        List<String> testRunnerArguments = argumentBuilder.getArguments();
+        List<String> testRunnerArguments = ResourceLimits
+                .fromConfiguration(getConfiguration(projectBasePath))
+                .wrap(argumentBuilder.getArguments());
 
         try {
             Process process = new ProcessBuilder(testRunnerArguments).start();
@@ -9,6 +9,8 @@ import fi.helsinki.cs.tmc.langs.java.exception.TestRunnerException;
 import fi.helsinki.cs.tmc.langs.java.exception.TestScannerException;
 import fi.helsinki.cs.tmc.langs.java.testscanner.TestScanner;
 
+import com.google.common.collect.ImmutableList;
+
 import org.apache.maven.cli.MavenCli;
 
 import org.slf4j.Logger;
@@ -34,6 +36,12 @@ public final class MavenPlugin extends AbstractJavaPlugin {
     private static final Path RESULT_FILE = Paths.get("target", "test_output.txt");
     private static final Path TEST_FOLDER = Paths.get("src");
 
+    /**
+     * Files whose presence, relative to the project root, marks a project of this type. Shared
+     * with the project type detection of the command line utility.
+     */
+    public static final ImmutableList<Path> EXERCISE_MARKERS = ImmutableList.of(POM_FILE);
+
     private static final String TEST_RUNNER_GOAL = "fi.helsinki.cs.tmc:tmc-maven-plugin:1.6:test";
 
     /**
@@ -45,7 +53,12 @@ public final class MavenPlugin extends AbstractJavaPlugin {
 
     @Override
     public boolean isExerciseTypeCorrect(Path path) {
-        return Files.exists(path.toAbsolutePath().resolve(POM_FILE));
+        for (Path marker : EXERCISE_MARKERS) {
+            if (Files.exists(path.toAbsolutePath().resolve(marker))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
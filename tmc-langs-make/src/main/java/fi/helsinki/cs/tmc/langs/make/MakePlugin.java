@@ -5,7 +5,9 @@ import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
 import fi.helsinki.cs.tmc.langs.domain.Configuration;
 import fi.helsinki.cs.tmc.langs.domain.ExerciseBuilder;
 import fi.helsinki.cs.tmc.langs.domain.ExerciseDesc;
+import fi.helsinki.cs.tmc.langs.domain.ResourceUsage;
 import fi.helsinki.cs.tmc.langs.domain.RunResult;
+import fi.helsinki.cs.tmc.langs.domain.SpecialLogs;
 import fi.helsinki.cs.tmc.langs.domain.TestDesc;
 import fi.helsinki.cs.tmc.langs.domain.TestResult;
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
@@ -14,14 +16,21 @@ import fi.helsinki.cs.tmc.langs.io.zip.StudentFileAwareUnzipper;
 import fi.helsinki.cs.tmc.langs.io.zip.StudentFileAwareZipper;
 import fi.helsinki.cs.tmc.langs.utils.ProcessResult;
 import fi.helsinki.cs.tmc.langs.utils.ProcessRunner;
+import fi.helsinki.cs.tmc.langs.utils.ResourceLimits;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -30,6 +39,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 public final class MakePlugin extends AbstractLanguagePlugin {
 
@@ -45,9 +55,23 @@ public final class MakePlugin extends AbstractLanguagePlugin {
     private static final String CANT_PARSE_EXERCISE_DESCRIPTION =
             "Couldn't parse exercise description.";
     private static final String COMPILE_FAILED_MESSAGE = "Failed to compile project.";
+    private static final String TIMED_OUT_MESSAGE = "Running make timed out.";
+
+    /**
+     * How long a single make invocation may run before it and everything it started is
+     * killed, unless the exercise sets <tt>resource_limits.wall_time</tt>.
+     */
+    private static final long DEFAULT_TIMEOUT_SECONDS = TimeUnit.MINUTES.toSeconds(10);
 
     private static final Logger log = LoggerFactory.getLogger(MakePlugin.class);
 
+    /**
+     * Files whose presence, relative to the project root, marks a project of this type. They
+     * must be regular files. Shared with the project type detection of the command line
+     * utility.
+     */
+    public static final ImmutableList<Path> EXERCISE_MARKERS = ImmutableList.of(MAKEFILE);
+
     private MakeUtils makeUtils;
 
     /**
@@ -68,28 +92,37 @@ public final class MakePlugin extends AbstractLanguagePlugin {
 
     @Override
     public Optional<ExerciseDesc> scanExercise(Path path, String exerciseName) {
+        return getResult(scanExerciseAsync(path, exerciseName));
+    }
+
+    @Override
+    public ListenableFuture<Optional<ExerciseDesc>> scanExerciseAsync(final Path path,
+                                                                      final String exerciseName) {
         if (!isExerciseTypeCorrect(path)) {
             log.error(WRONG_EXERCISE_TYPE_MESSAGE);
-            return Optional.absent();
+            return Futures.immediateFuture(Optional.<ExerciseDesc>absent());
         }
 
-        try {
-            runTests(path, false);
-        } catch (Exception e) {
-            log.error(TEST_FAIL_MESSAGE);
-            log.error(e.toString());
-            return Optional.absent();
-        }
-
-        final Path availablePoints = path.toAbsolutePath().resolve(TEST_DIR)
-                .resolve(AVAILABLE_POINTS);
-
-        if (!Files.exists(availablePoints)) {
-            log.info(CANT_PARSE_EXERCISE_DESCRIPTION);
-            return Optional.absent();
-        }
-
-        return Optional.of(parseExerciseDesc(availablePoints, exerciseName));
+        return Futures.transform(runTests(path, false),
+                new Function<ProcessResult, Optional<ExerciseDesc>>() {
+                    @Override
+                    public Optional<ExerciseDesc> apply(ProcessResult result) {
+                        if (result.statusCode != 0) {
+                            log.error(TEST_FAIL_MESSAGE);
+                            return Optional.absent();
+                        }
+
+                        final Path availablePoints = path.toAbsolutePath().resolve(TEST_DIR)
+                                .resolve(AVAILABLE_POINTS);
+
+                        if (!Files.exists(availablePoints)) {
+                            log.info(CANT_PARSE_EXERCISE_DESCRIPTION);
+                            return Optional.absent();
+                        }
+
+                        return Optional.of(parseExerciseDesc(availablePoints, exerciseName));
+                    }
+                }, getExecutor());
     }
 
     private ExerciseDesc parseExerciseDesc(Path availablePoints, String exerciseName) {
@@ -129,7 +162,12 @@ public final class MakePlugin extends AbstractLanguagePlugin {
 
     @Override
     public boolean isExerciseTypeCorrect(Path path) {
-        return Files.isRegularFile(path.resolve(MAKEFILE));
+        for (Path marker : EXERCISE_MARKERS) {
+            if (Files.isRegularFile(path.resolve(marker))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -147,70 +185,137 @@ public final class MakePlugin extends AbstractLanguagePlugin {
 
     @Override
     public RunResult runTests(Path path) {
-        boolean withValgrind = true;
+        return getResult(runTestsAsync(path));
+    }
 
-        if (!builds(path)) {
-            log.info(COMPILE_FAILED_MESSAGE);
-            return new RunResult(RunResult.Status.COMPILE_FAILED,
-                ImmutableList.<TestResult>of(), new ImmutableMap.Builder<String, byte[]>().build());
-        }
+    @Override
+    public ListenableFuture<RunResult> runTestsAsync(final Path path) {
+        return Futures.transform(make(path, "test"), new AsyncFunction<ProcessResult, RunResult>() {
+            @Override
+            public ListenableFuture<RunResult> apply(ProcessResult build) {
+                if (build.timedOut) {
+                    return Futures.immediateFuture(
+                            timedOutResult().withResourceUsage(build.resourceUsage));
+                }
+                if (build.statusCode != 0) {
+                    log.info(COMPILE_FAILED_MESSAGE);
+                    return Futures.immediateFuture(new RunResult(RunResult.Status.COMPILE_FAILED,
+                            ImmutableList.<TestResult>of(),
+                            new ImmutableMap.Builder<String, byte[]>().build(),
+                            build.resourceUsage));
+                }
+
+                return runTestsWithValgrindFallback(path, build.resourceUsage);
+            }
+        }, getExecutor());
+    }
 
-        try {
-            runTests(path, withValgrind);
-        } catch (Exception e) {
-            withValgrind = false;
+    /**
+     * Runs the tests with valgrind, or without it if running with valgrind fails. The resources
+     * used by the runs are added to those used by the build.
+     */
+    private ListenableFuture<RunResult> runTestsWithValgrindFallback(
+            final Path path, final ResourceUsage buildUsage) {
+        return Futures.transform(runTests(path, true),
+                new AsyncFunction<ProcessResult, RunResult>() {
+                    @Override
+                    public ListenableFuture<RunResult> apply(ProcessResult withValgrind) {
+                        final ResourceUsage used = plus(buildUsage, withValgrind);
+                        if (withValgrind.timedOut) {
+                            return Futures.immediateFuture(
+                                    timedOutResult().withResourceUsage(used));
+                        }
+                        if (withValgrind.statusCode == 0) {
+                            return Futures.immediateFuture(
+                                    parseRunResult(path, true).withResourceUsage(used));
+                        }
+
+                        return Futures.transform(runTests(path, false),
+                                new Function<ProcessResult, RunResult>() {
+                                    @Override
+                                    public RunResult apply(ProcessResult withoutValgrind) {
+                                        ResourceUsage total = plus(used, withoutValgrind);
+                                        if (withoutValgrind.timedOut) {
+                                            return timedOutResult().withResourceUsage(total);
+                                        }
+                                        if (withoutValgrind.statusCode != 0) {
+                                            throw new RuntimeException(TEST_FAIL_MESSAGE);
+                                        }
+                                        return parseRunResult(path, false)
+                                                .withResourceUsage(total);
+                                    }
+                                }, getExecutor());
+                    }
+                }, getExecutor());
+    }
 
-            try {
-                runTests(path, withValgrind);
-            } catch (Exception e1) {
-                log.error(e1.toString());
-                throw new RuntimeException(TEST_FAIL_MESSAGE);
-            }
+    /**
+     * Adds the usage of the run to the total, which is null if the usage of an earlier run could
+     * not be measured.
+     */
+    private static ResourceUsage plus(ResourceUsage total, ProcessResult run) {
+        if (total == null || run.resourceUsage == null) {
+            return null;
         }
+        return total.plus(run.resourceUsage);
+    }
+
+    private RunResult timedOutResult() {
+        log.warn(TIMED_OUT_MESSAGE);
+        return new RunResult(RunResult.Status.GENERIC_ERROR,
+                ImmutableList.<TestResult>of(),
+                ImmutableMap.of(SpecialLogs.GENERIC_ERROR_MESSAGE,
+                        TIMED_OUT_MESSAGE.getBytes(StandardCharsets.UTF_8)));
+    }
 
+    private RunResult parseRunResult(Path path, boolean withValgrind) {
         Path baseTestPath = path.toAbsolutePath().resolve(TEST_DIR);
         Path testResults = baseTestPath.resolve(TMC_TEST_RESULTS);
         Path valgrindOutput = withValgrind ? baseTestPath.resolve(VALGRIND_LOG) : null;
-        Configuration configuration = new Configuration(path);
+        Configuration configuration = getConfiguration(path);
 
         return new CTestResultParser(path, testResults, valgrindOutput, configuration, withValgrind)
                 .result();
     }
 
-    private void runTests(Path dir, boolean withValgrind) throws Exception {
+    private ListenableFuture<ProcessResult> runTests(Path dir, boolean withValgrind) {
         String target = withValgrind ? "run-test-with-valgrind" : "run-test";
+        return make(dir, target);
+    }
+
+    /**
+     * Runs the given make target. A failure to start make is reported as a failed run.
+     */
+    private ListenableFuture<ProcessResult> make(Path dir, String target) {
         String[] command = {"make", target};
 
-        log.info("Running tests with command {0}",
+        log.info("Running make with command {0}",
                 new Object[]{Arrays.deepToString(command)});
 
         ProcessRunner runner = new ProcessRunner(command, dir);
-        ProcessResult result = runner.call();
-        if (result.statusCode != 0) {
-            log.warn(result.errorOutput);
-            throw new IllegalArgumentException(result.errorOutput);
-        }
+        ResourceLimits limits = ResourceLimits.fromConfiguration(getConfiguration(dir));
+        runner.setTimeout(limits.getWallTimeSeconds().or(DEFAULT_TIMEOUT_SECONDS),
+                TimeUnit.SECONDS);
+        runner.setResourceLimits(limits);
+        ListenableFuture<ProcessResult> run = runner.callAsync();
+        return Futures.transform(Futures.withFallback(run, new FutureFallback<ProcessResult>() {
+            @Override
+            public ListenableFuture<ProcessResult> create(Throwable t) {
+                return Futures.immediateFuture(new ProcessResult(-1, "", t.toString()));
+            }
+        }), new Function<ProcessResult, ProcessResult>() {
+            @Override
+            public ProcessResult apply(ProcessResult result) {
+                if (result.statusCode != 0) {
+                    log.warn(result.errorOutput);
+                }
+                return result;
+            }
+        });
     }
 
     @Override
     public ValidationResult checkCodeStyle(Path path) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
-
-    private boolean builds(Path dir) {
-        String[] command = {"make", "test"};
-        ProcessRunner runner = new ProcessRunner(command, dir);
-
-        try {
-            ProcessResult result = runner.call();
-            int ret = result.statusCode;
-            if (ret != 0) {
-                return false;
-            }
-        } catch (Exception e) {
-            return false;
-        }
-
-        return true;
-    }
-}
\ No newline at end of file
+}
@@ -5,15 +5,24 @@ import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
 import fi.helsinki.cs.tmc.langs.domain.ExerciseBuilder;
 import fi.helsinki.cs.tmc.langs.domain.ExerciseDesc;
 import fi.helsinki.cs.tmc.langs.domain.RunResult;
+import fi.helsinki.cs.tmc.langs.domain.SpecialLogs;
 import fi.helsinki.cs.tmc.langs.domain.TestDesc;
+import fi.helsinki.cs.tmc.langs.domain.TestResult;
 import fi.helsinki.cs.tmc.langs.io.StudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.io.sandbox.StudentFileAwareSubmissionProcessor;
 import fi.helsinki.cs.tmc.langs.io.zip.StudentFileAwareUnzipper;
 import fi.helsinki.cs.tmc.langs.io.zip.StudentFileAwareZipper;
+import fi.helsinki.cs.tmc.langs.utils.ProcessResult;
 import fi.helsinki.cs.tmc.langs.utils.ProcessRunner;
+import fi.helsinki.cs.tmc.langs.utils.ResourceLimits;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.SystemUtils;
@@ -22,24 +31,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 public final class Python3Plugin extends AbstractLanguagePlugin {
 
-    private static final Path SETUP_PY_PATH = Paths.get("setup.py");
-    private static final Path REQUIREMENTS_TXT_PATH = Paths.get("requirements.txt");
-    private static final Path TEST_FOLDER_PATH = Paths.get("test");
-    private static final Path INIT_PY_PATH = Paths.get("__init__.py");
-    private static final Path TMC_TEST_LIBRARY_PATH = Paths.get("tmc");
-    private static final Path MAIN_PY_PATH = Paths.get("__main__.py");
+    /**
+     * Files whose presence, relative to the project root, marks a project of this type. Shared
+     * with the project type detection of the command line utility.
+     */
+    public static final ImmutableList<Path> EXERCISE_MARKERS = ImmutableList.of(
+            Paths.get("setup.py"),
+            Paths.get("requirements.txt"),
+            Paths.get("test", "__init__.py"),
+            Paths.get("tmc", "__main__.py"));
 
     private static final String CANNOT_RUN_TESTS_MESSAGE = "Failed to run tests.";
     private static final String CANNOT_PARSE_TEST_RESULTS_MESSAGE = "Failed to read test results.";
     private static final String CANNOT_SCAN_EXERCISE_MESSAGE = "Failed to scan exercise.";
     private static final String CANNOT_PARSE_EXERCISE_DESCRIPTION_MESSAGE
             = "Failed to parse exercise description.";
+    private static final String TIMED_OUT_MESSAGE = "Running tests timed out.";
+
+    /**
+     * How long a single python3 invocation may run before it and everything it started is
+     * killed, unless the exercise sets <tt>resource_limits.wall_time</tt>.
+     */
+    private static final long DEFAULT_TIMEOUT_SECONDS = TimeUnit.MINUTES.toSeconds(10);
 
     private static Logger log = LoggerFactory.getLogger(Python3Plugin.class);
 
@@ -55,11 +76,12 @@ public final class Python3Plugin extends AbstractLanguagePlugin {
 
     @Override
     public boolean isExerciseTypeCorrect(Path path) {
-        return Files.exists(path.resolve(SETUP_PY_PATH))
-                || Files.exists(path.resolve(REQUIREMENTS_TXT_PATH))
-                || Files.exists(path.resolve(TEST_FOLDER_PATH).resolve(INIT_PY_PATH))
-                || Files.exists(path.resolve(TMC_TEST_LIBRARY_PATH)
-                    .resolve(MAIN_PY_PATH));
+        for (Path marker : EXERCISE_MARKERS) {
+            if (Files.exists(path.resolve(marker))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -74,40 +96,82 @@ public final class Python3Plugin extends AbstractLanguagePlugin {
 
     @Override
     public Optional<ExerciseDesc> scanExercise(Path path, String exerciseName) {
+        return getResult(scanExerciseAsync(path, exerciseName));
+    }
 
-        ProcessRunner runner = new ProcessRunner(getAvailablePointsCommand(), path);
-        try {
-            runner.call();
-        } catch (Exception e) {
-            log.error(CANNOT_SCAN_EXERCISE_MESSAGE, e);
-        }
-
-        try {
-            ImmutableList<TestDesc> testDescs = new Python3ExerciseDescParser(path).parse();
-            return Optional.of(new ExerciseDesc(exerciseName, testDescs));
-        } catch (IOException e) {
-            log.error(CANNOT_PARSE_EXERCISE_DESCRIPTION_MESSAGE, e);
-        }
-
-        return Optional.absent();
+    @Override
+    public ListenableFuture<Optional<ExerciseDesc>> scanExerciseAsync(final Path path,
+                                                                      final String exerciseName) {
+        ListenableFuture<ProcessResult> run = runIgnoringFailure(getAvailablePointsCommand(),
+                path, CANNOT_SCAN_EXERCISE_MESSAGE);
+        return Futures.transform(run, new Function<ProcessResult, Optional<ExerciseDesc>>() {
+            @Override
+            public Optional<ExerciseDesc> apply(ProcessResult result) {
+                try {
+                    ImmutableList<TestDesc> testDescs =
+                            new Python3ExerciseDescParser(path).parse();
+                    return Optional.of(new ExerciseDesc(exerciseName, testDescs));
+                } catch (IOException e) {
+                    log.error(CANNOT_PARSE_EXERCISE_DESCRIPTION_MESSAGE, e);
+                }
+
+                return Optional.absent();
+            }
+        }, getExecutor());
     }
 
     @Override
     public RunResult runTests(Path path) {
+        return getResult(runTestsAsync(path));
+    }
 
-        ProcessRunner runner = new ProcessRunner(getTestCommand(), path);
-        try {
-            runner.call();
-        } catch (Exception e) {
-            log.error(CANNOT_RUN_TESTS_MESSAGE, e);
-        }
+    @Override
+    public ListenableFuture<RunResult> runTestsAsync(final Path path) {
+        ListenableFuture<ProcessResult> run =
+                runIgnoringFailure(getTestCommand(), path, CANNOT_RUN_TESTS_MESSAGE);
+        return Futures.transform(run, new Function<ProcessResult, RunResult>() {
+            @Override
+            public RunResult apply(ProcessResult result) {
+                if (result != null && result.timedOut) {
+                    log.warn(TIMED_OUT_MESSAGE);
+                    return new RunResult(RunResult.Status.GENERIC_ERROR,
+                            ImmutableList.<TestResult>of(),
+                            ImmutableMap.of(SpecialLogs.GENERIC_ERROR_MESSAGE,
+                                    TIMED_OUT_MESSAGE.getBytes(StandardCharsets.UTF_8)),
+                            result.resourceUsage);
+                }
+                try {
+                    RunResult runResult = new Python3TestResultParser(path).parse();
+                    if (result != null) {
+                        return runResult.withResourceUsage(result.resourceUsage);
+                    }
+                    return runResult;
+                } catch (IOException e) {
+                    log.error(CANNOT_PARSE_TEST_RESULTS_MESSAGE, e);
+                }
+                return null;
+            }
+        }, getExecutor());
+    }
 
-        try {
-            return new Python3TestResultParser(path).parse();
-        } catch (IOException e) {
-            log.error(CANNOT_PARSE_TEST_RESULTS_MESSAGE, e);
-        }
-        return null;
+    /**
+     * Runs the command, logging the given message instead of failing if it cannot be run.
+     */
+    private ListenableFuture<ProcessResult> runIgnoringFailure(String[] command, Path path,
+                                                               final String failureMessage) {
+        ProcessRunner runner = new ProcessRunner(command, path);
+        ResourceLimits limits = ResourceLimits.fromConfiguration(getConfiguration(path));
+        runner.setTimeout(limits.getWallTimeSeconds().or(DEFAULT_TIMEOUT_SECONDS),
+                TimeUnit.SECONDS);
+        runner.setResourceLimits(limits);
+        ListenableFuture<ProcessResult> run = runner.callAsync();
+        return Futures.withFallback(run, new FutureFallback<ProcessResult>() {
+            @Override
+            public ListenableFuture<ProcessResult> create(Throwable t) {
+                log.error(failureMessage, t);
+                return Futures.immediateFuture(null);
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,163 @@
+package fi.helsinki.cs.tmc.langs.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs asynchronous tasks with a separate concurrency limit for each key.
+ *
+ * <p>A task is started once fewer than the limit of tasks with the same key are running,
+ * otherwise it waits in a queue for its key. Tasks are started in submission order within a key.
+ * No threads are used for waiting: a queued task is started when a running one completes.
+ */
+final class BatchScheduler<K> {
+
+    private final Map<K, Lane> lanes = new HashMap<>();
+    private final int defaultLimit;
+
+    BatchScheduler(int defaultLimit) {
+        Preconditions.checkArgument(defaultLimit > 0, "Concurrency limit must be positive");
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * Sets the number of tasks with the given key that may run at the same time.
+     */
+    void setLimit(K key, int limit) {
+        Preconditions.checkArgument(limit > 0, "Concurrency limit must be positive");
+        Lane lane = getLane(key);
+        synchronized (lane) {
+            lane.limit = limit;
+        }
+        lane.startQueued();
+    }
+
+    /**
+     * Schedules a task. The task is called when a slot for its key is free and occupies the slot
+     * until the future it returns is complete.
+     *
+     * @return A future completed with the outcome of the task. Cancelling it cancels the task,
+     *     or removes it from the queue if it has not been started yet.
+     */
+    <V> ListenableFuture<V> submit(K key, Callable<ListenableFuture<V>> task) {
+        Lane lane = getLane(key);
+        Pending<V> pending = new Pending<>(lane, task);
+        synchronized (lane) {
+            lane.queue.add(pending);
+        }
+        lane.startQueued();
+        return pending.result;
+    }
+
+    private synchronized Lane getLane(K key) {
+        Lane lane = lanes.get(key);
+        if (lane == null) {
+            lane = new Lane(defaultLimit);
+            lanes.put(key, lane);
+        }
+        return lane;
+    }
+
+    private static final class Lane {
+
+        private final Queue<Pending<?>> queue = new ArrayDeque<>();
+        private int limit;
+        private int running;
+        private boolean starting;
+
+        Lane(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Starts queued tasks while there are free slots. Only one thread starts tasks at a time,
+         * which also keeps tasks that complete immediately from recursing back in here.
+         */
+        void startQueued() {
+            synchronized (this) {
+                if (starting) {
+                    return;
+                }
+                starting = true;
+            }
+            while (true) {
+                Pending<?> next;
+                synchronized (this) {
+                    if (running >= limit || queue.isEmpty()) {
+                        starting = false;
+                        return;
+                    }
+                    next = queue.poll();
+                    if (next.result.isCancelled()) {
+                        continue;
+                    }
+                    running++;
+                }
+                next.start();
+            }
+        }
+
+        void finished() {
+            synchronized (this) {
+                running--;
+            }
+            startQueued();
+        }
+    }
+
+    private static final class Pending<V> {
+
+        private final SettableFuture<V> result = SettableFuture.create();
+        private final Lane lane;
+        private final Callable<ListenableFuture<V>> task;
+
+        Pending(Lane lane, Callable<ListenableFuture<V>> task) {
+            this.lane = lane;
+            this.task = task;
+        }
+
+        void start() {
+            final ListenableFuture<V> run;
+            try {
+                run = task.call();
+            } catch (Exception e) {
+                result.setException(e);
+                lane.finished();
+                return;
+            }
+
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isCancelled()) {
+                        run.cancel(true);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+
+            Futures.addCallback(run, new FutureCallback<V>() {
+                @Override
+                public void onSuccess(V value) {
+                    result.set(value);
+                    lane.finished();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    result.setException(t);
+                    lane.finished();
+                }
+            });
+        }
+    }
+}
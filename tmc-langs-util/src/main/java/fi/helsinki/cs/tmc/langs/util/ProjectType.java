@@ -7,51 +7,282 @@ import fi.helsinki.cs.tmc.langs.java.maven.MavenPlugin;
 import fi.helsinki.cs.tmc.langs.make.MakePlugin;
 import fi.helsinki.cs.tmc.langs.python3.Python3Plugin;
 
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * All the possible project types.
+ *
+ * <p>Language plugins are created on first use, so that detecting or handling one type of
+ * project does not load the dependencies of the others.
+ *
+ * <p>Project types are detected from a single listing of the project directory, using the
+ * marker files that each plugin also uses in its
+ * {@link LanguagePlugin#isExerciseTypeCorrect(Path)}. Reading the markers only initializes the
+ * plugin class and does not create the plugin.
+ *
+ * <p>Detections are cached until the modification time or the size of a directory they looked
+ * into changes. On filesystems with coarse timestamps, such as the two-second resolution of FAT,
+ * a marker that is added or removed within the same tick as the detection may go unnoticed when
+ * the filesystem does not report a new size for the directory either.
  */
 public enum ProjectType {
 
-    JAVA_ANT(new AntPlugin()),
-    JAVA_MAVEN(new MavenPlugin()),
-    MAKEFILE(new MakePlugin()),
-    PYTHON3(new Python3Plugin());
+    JAVA_ANT {
+        @Override
+        LanguagePlugin createLanguagePlugin() {
+            return new AntPlugin();
+        }
+
+        @Override
+        boolean isProjectOfType(DirectoryListing listing) {
+            return listing.containsAny(AntPlugin.EXERCISE_MARKERS);
+        }
+    },
+    JAVA_MAVEN {
+        @Override
+        LanguagePlugin createLanguagePlugin() {
+            return new MavenPlugin();
+        }
+
+        @Override
+        boolean isProjectOfType(DirectoryListing listing) {
+            return listing.containsAny(MavenPlugin.EXERCISE_MARKERS);
+        }
+    },
+    MAKEFILE {
+        @Override
+        LanguagePlugin createLanguagePlugin() {
+            return new MakePlugin();
+        }
+
+        @Override
+        boolean isProjectOfType(DirectoryListing listing) {
+            return listing.containsAnyRegularFile(MakePlugin.EXERCISE_MARKERS);
+        }
+    },
+    PYTHON3 {
+        @Override
+        LanguagePlugin createLanguagePlugin() {
+            return new Python3Plugin();
+        }
+
+        @Override
+        boolean isProjectOfType(DirectoryListing listing) {
+            return listing.containsAny(Python3Plugin.EXERCISE_MARKERS);
+        }
+    };
 
-    private final LanguagePlugin languagePlugin;
     private static final Logger log = LoggerFactory.getLogger(ProjectType.class);
 
-    ProjectType(LanguagePlugin languagePlugin) {
-        this.languagePlugin = languagePlugin;
-    }
+    private static final Cache<Path, Detection> detections =
+            CacheBuilder.newBuilder().maximumSize(10000).build();
 
+    private volatile LanguagePlugin languagePlugin;
+
+    abstract LanguagePlugin createLanguagePlugin();
+
+    abstract boolean isProjectOfType(DirectoryListing listing);
+
+    /**
+     * Returns the language plugin of this project type, creating it on first use.
+     */
     public LanguagePlugin getLanguagePlugin() {
-        return languagePlugin;
+        LanguagePlugin plugin = languagePlugin;
+        if (plugin == null) {
+            synchronized (this) {
+                plugin = languagePlugin;
+                if (plugin == null) {
+                    log.debug("Loading language plugin for {}", this);
+                    plugin = createLanguagePlugin();
+                    languagePlugin = plugin;
+                }
+            }
+        }
+        return plugin;
     }
 
     /**
      * Recognizes the project type.
      *
-     * <p>Iterate through all language plugins to find one that recognizes the
-     * project as their type.
+     * <p>The project types are tried in declaration order and the first one that
+     * recognizes the project is returned.
      *
      * @param path The path to the exercise directory.
      * @return The project type that recognizes the project.
      */
     static ProjectType getProjectType(Path path) throws NoLanguagePluginFoundException {
         log.info("Finding plugin for {}", path);
-        for (ProjectType type : ProjectType.values()) {
-            if (type.getLanguagePlugin().isExerciseTypeCorrect(path)) {
-                log.info("Detected project as {}", type.getLanguagePlugin().getLanguageName());
-                return type;
-            }
+        Optional<ProjectType> type = detect(path);
+        if (type.isPresent()) {
+            log.info("Detected project as {}", type.get());
+            return type.get();
         }
 
         log.error("No suitable language plugin found for project at {}", path);
         throw new NoLanguagePluginFoundException("No suitable language plugin found.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Detects the project type of a directory without logging.
+     *
+     * @return The project type, or absent if no project type recognizes the directory.
+     */
+    static Optional<ProjectType> detect(Path path) {
+        Path directory = path.toAbsolutePath().normalize();
+        Detection detection = detections.getIfPresent(directory);
+        if (detection != null && detection.isValid()) {
+            return detection.type;
+        }
+
+        DirectoryListing listing;
+        try {
+            listing = new DirectoryListing(directory);
+        } catch (IOException e) {
+            log.debug("Unable to list {}", directory, e);
+            detections.invalidate(directory);
+            return Optional.absent();
+        }
+
+        Optional<ProjectType> type = Optional.absent();
+        for (ProjectType candidate : values()) {
+            if (candidate.isProjectOfType(listing)) {
+                type = Optional.of(candidate);
+                break;
+            }
+        }
+        detections.put(directory, new Detection(type, listing.states));
+        return type;
+    }
+
+    /**
+     * The file names in a directory, read with one listing.
+     *
+     * <p>Remembers the state of the directories it looked into, so that a detection based on
+     * it can later be checked for staleness.
+     */
+    static final class DirectoryListing {
+
+        private final Path directory;
+        private final Set<String> names = new HashSet<>();
+        private final Map<Path, DirectoryState> states = new HashMap<>();
+
+        private DirectoryListing(Path directory) throws IOException {
+            this.directory = directory;
+            states.put(directory, DirectoryState.of(directory));
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    names.add(child.getFileName().toString());
+                }
+            }
+        }
+
+        /**
+         * Returns whether any of the markers, relative to the directory, exists. Only the
+         * first name of each marker is looked up from the listing; the directories of nested
+         * markers are watched from then on.
+         */
+        boolean containsAny(List<Path> markers) {
+            for (Path marker : markers) {
+                if (!names.contains(marker.getName(0).toString())) {
+                    continue;
+                }
+                if (marker.getNameCount() == 1 || isNestedMarkerPresent(marker)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Like {@link #containsAny(List)}, but the marker must be a regular file.
+         */
+        boolean containsAnyRegularFile(List<Path> markers) {
+            for (Path marker : markers) {
+                if (names.contains(marker.getName(0).toString())
+                        && Files.isRegularFile(directory.resolve(marker))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isNestedMarkerPresent(Path marker) {
+            Path parent = directory;
+            for (int i = 0; i < marker.getNameCount() - 1; i++) {
+                parent = parent.resolve(marker.getName(i));
+                try {
+                    states.put(parent, DirectoryState.of(parent));
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+            return Files.exists(directory.resolve(marker));
+        }
+    }
+
+    /**
+     * The modification time and size of a directory, read with a single stat. Many
+     * filesystems report a directory size that changes as entries are added or removed, which
+     * catches some changes that a coarse modification time would miss.
+     */
+    private static final class DirectoryState {
+
+        private final long modified;
+        private final long size;
+
+        private DirectoryState(long modified, long size) {
+            this.modified = modified;
+            this.size = size;
+        }
+
+        static DirectoryState of(Path directory) throws IOException {
+            BasicFileAttributes attributes =
+                    Files.readAttributes(directory, BasicFileAttributes.class);
+            return new DirectoryState(attributes.lastModifiedTime().toMillis(), attributes.size());
+        }
+
+        boolean matches(DirectoryState other) {
+            return modified == other.modified && size == other.size;
+        }
+    }
+
+    private static final class Detection {
+
+        private final Optional<ProjectType> type;
+        private final Map<Path, DirectoryState> states;
+
+        Detection(Optional<ProjectType> type, Map<Path, DirectoryState> states) {
+            this.type = type;
+            this.states = states;
+        }
+
+        boolean isValid() {
+            for (Map.Entry<Path, DirectoryState> entry : states.entrySet()) {
+                try {
+                    if (!DirectoryState.of(entry.getKey()).matches(entry.getValue())) {
+                        return false;
+                    }
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
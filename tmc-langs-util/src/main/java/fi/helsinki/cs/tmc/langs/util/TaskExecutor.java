@@ -6,9 +6,13 @@ import fi.helsinki.cs.tmc.langs.domain.RunResult;
 import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Interface for calling different tasks of TMC-langs language plug-ins.
@@ -35,6 +39,23 @@ public interface TaskExecutor {
      */
     void prepareStub(Path path) throws NoLanguagePluginFoundException;
 
+    /**
+     * Finds the correct language plug-in for the given exercise path. After which calls the
+     * {@link fi.helsinki.cs.tmc.langs.LanguagePlugin#prepareStubAndSolution(
+     * java.nio.file.Path, java.nio.file.Path, java.nio.file.Path)
+     * prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget)} task.
+     */
+    void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget)
+            throws NoLanguagePluginFoundException, IOException;
+
+    /**
+     * Like {@link #prepareStubAndSolution(Path, Path, Path)}, but only processes the files that
+     * changed since the previous call with the same manifest file.
+     */
+    void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget,
+                                Path manifestFile)
+            throws NoLanguagePluginFoundException, IOException;
+
     /**
      * Finds the correct language plug-in for the given exercise path. After which calls the
      * {@link fi.helsinki.cs.tmc.langs.LanguagePlugin#checkCodeStyle(java.nio.file.Path)
@@ -49,6 +70,18 @@ public interface TaskExecutor {
      */
     RunResult runTests(Path path) throws NoLanguagePluginFoundException;
 
+    /**
+     * Runs the tests of many exercises concurrently.
+     *
+     * <p>The number of test runs in progress at the same time is limited separately for each
+     * {@link ProjectType}; the remaining runs wait in a queue. Results can be consumed as they
+     * finish with {@link com.google.common.util.concurrent.Futures#inCompletionOrder(Iterable)}.
+     *
+     * @return A future for each path, in the same order as the paths. The future fails with
+     *     {@link NoLanguagePluginFoundException} if no plug-in recognises the exercise.
+     */
+    ImmutableList<ListenableFuture<RunResult>> runTestsBatch(List<Path> paths);
+
     /**
      * Finds the correct language plug-in for the given exercise path. After which calls the
      * {@link fi.helsinki.cs.tmc.langs.LanguagePlugin#scanExercise(java.nio.file.Path, String)
@@ -62,6 +95,16 @@ public interface TaskExecutor {
      */
     boolean isExerciseRootDirectory(Path path);
 
+    /**
+     * Finds all exercises that TMC-langs can process in the given course directory.
+     *
+     * <p>The exercises found are kept in a persistent index, so subsequent calls only examine
+     * directories that have been modified since the previous call.
+     *
+     * @return A sorted list of exercise directories. Never null.
+     */
+    ImmutableList<Path> findExercises(Path path) throws IOException;
+
     /**
      * Extract a given archive file containing a compressed project to a target location.
      *
@@ -73,6 +116,14 @@ public interface TaskExecutor {
      */
     void extractProject(Path compressedProject, Path targetLocation) throws IOException;
 
+    /**
+     * Extract a compressed project held in memory to a target location, without writing the
+     * archive to disk first.
+     *
+     * @see #extractProject(Path, Path)
+     */
+    void extractProject(byte[] compressedProject, Path targetLocation) throws IOException;
+
     /**
      * Extract a given archive file containing a compressed project to a target location.
      *
@@ -91,4 +142,11 @@ public interface TaskExecutor {
      * Compresses a project, creating a zip that can be sent to the TMC server as a submission.
      */
     byte[] compressProject(Path path) throws IOException, NoLanguagePluginFoundException;
+
+    /**
+     * Compresses a project, writing the zip to <tt>output</tt> as it is being built instead of
+     * holding it in memory. The stream is not closed.
+     */
+    void compressProject(Path path, OutputStream output)
+            throws IOException, NoLanguagePluginFoundException;
 }
@@ -5,22 +5,73 @@ import fi.helsinki.cs.tmc.langs.domain.ExerciseDesc;
 import fi.helsinki.cs.tmc.langs.domain.NoLanguagePluginFoundException;
 import fi.helsinki.cs.tmc.langs.domain.RunResult;
 import fi.helsinki.cs.tmc.langs.io.EverythingIsStudentFileStudentFilePolicy;
+import fi.helsinki.cs.tmc.langs.io.ExerciseIndex;
 import fi.helsinki.cs.tmc.langs.io.NothingIsStudentFileStudentFilePolicy;
 import fi.helsinki.cs.tmc.langs.io.zip.StudentFileAwareUnzipper;
 import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 public final class TaskExecutorImpl implements TaskExecutor {
 
     private static final Logger log = LoggerFactory.getLogger(TaskExecutorImpl.class);
 
+    private static final Path DEFAULT_INDEX_DIRECTORY =
+            userCacheDirectory().resolve("tmc-langs").resolve("exercise-index");
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    private final Path indexDirectory;
+    private final Map<Path, ExerciseIndex> exerciseIndexes = new HashMap<>();
+    private final BatchScheduler<ProjectType> batchScheduler = new BatchScheduler<>(PROCESSORS);
+
+    /**
+     * Creates a new TaskExecutorImpl that keeps its exercise indexes in the cache directory of
+     * the user.
+     */
+    public TaskExecutorImpl() {
+        this(DEFAULT_INDEX_DIRECTORY);
+    }
+
+    /**
+     * Creates a new TaskExecutorImpl that keeps its exercise indexes in the given directory.
+     */
+    public TaskExecutorImpl(Path indexDirectory) {
+        this.indexDirectory = indexDirectory;
+        // Maven builds run in-process and set a global system property, so only one at a time.
+        batchScheduler.setLimit(ProjectType.JAVA_MAVEN, 1);
+        batchScheduler.setLimit(ProjectType.JAVA_ANT, Math.max(1, PROCESSORS / 2));
+    }
+
+    /**
+     * Sets how many exercises of the given type {@link #runTestsBatch(List)} tests at the same
+     * time. Defaults to the number of processors, except for Maven and Ant projects, whose builds
+     * run inside this JVM.
+     */
+    public void setConcurrencyLimit(ProjectType projectType, int limit) {
+        batchScheduler.setLimit(projectType, limit);
+    }
+
     @Override
     public ValidationResult runCheckCodeStyle(Path path) throws NoLanguagePluginFoundException {
         return getLanguagePlugin(path).checkCodeStyle(path);
@@ -31,6 +82,29 @@ public final class TaskExecutorImpl implements TaskExecutor {
         return getLanguagePlugin(path).runTests(path);
     }
 
+    @Override
+    public ImmutableList<ListenableFuture<RunResult>> runTestsBatch(List<Path> paths) {
+        ImmutableList.Builder<ListenableFuture<RunResult>> results = ImmutableList.builder();
+        for (final Path path : paths) {
+            final ProjectType projectType;
+            try {
+                projectType = ProjectType.getProjectType(path);
+            } catch (NoLanguagePluginFoundException e) {
+                results.add(Futures.<RunResult>immediateFailedFuture(e));
+                continue;
+            }
+
+            results.add(batchScheduler.submit(projectType,
+                    new Callable<ListenableFuture<RunResult>>() {
+                        @Override
+                        public ListenableFuture<RunResult> call() {
+                            return projectType.getLanguagePlugin().runTestsAsync(path);
+                        }
+                    }));
+        }
+        return results.build();
+    }
+
     @Override
     public Optional<ExerciseDesc> scanExercise(Path path, String exerciseName)
             throws NoLanguagePluginFoundException {
@@ -44,12 +118,12 @@ public final class TaskExecutorImpl implements TaskExecutor {
 
     @Override
     public boolean isExerciseRootDirectory(Path path) {
-        for (ProjectType projectType : ProjectType.values()) {
-            if (projectType.getLanguagePlugin().isExerciseTypeCorrect(path)) {
-                return true;
-            }
-        }
-        return false;
+        return ProjectType.detect(path).isPresent();
+    }
+
+    @Override
+    public ImmutableList<Path> findExercises(Path path) throws IOException {
+        return getExerciseIndex(path).refresh().keySet().asList();
     }
 
     @Override
@@ -64,6 +138,19 @@ public final class TaskExecutorImpl implements TaskExecutor {
         }
     }
 
+    @Override
+    public void extractProject(byte[] compressedProject, Path targetLocation)
+            throws IOException {
+        try {
+            LanguagePlugin languagePlugin = getLanguagePlugin(targetLocation);
+            languagePlugin.extractProject(compressedProject, targetLocation);
+        } catch (NoLanguagePluginFoundException e) {
+            StudentFileAwareUnzipper unzipper =
+                    new StudentFileAwareUnzipper(new EverythingIsStudentFileStudentFilePolicy());
+            unzipper.unzip(compressedProject, targetLocation);
+        }
+    }
+
     @Override
     public void extractProject(Path compressedProject, Path targetLocation,
                                boolean overwriteEverything) throws IOException {
@@ -86,11 +173,71 @@ public final class TaskExecutorImpl implements TaskExecutor {
         getLanguagePlugin(path).prepareSolution(path);
     }
 
+    @Override
+    public void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget)
+            throws NoLanguagePluginFoundException, IOException {
+        getLanguagePlugin(path).prepareStubAndSolution(path, stubTarget, solutionTarget);
+    }
+
+    @Override
+    public void prepareStubAndSolution(Path path, Path stubTarget, Path solutionTarget,
+                                       Path manifestFile)
+            throws NoLanguagePluginFoundException, IOException {
+        getLanguagePlugin(path)
+                .prepareStubAndSolution(path, stubTarget, solutionTarget, manifestFile);
+    }
+
     @Override
     public byte[] compressProject(Path path) throws NoLanguagePluginFoundException, IOException {
         return getLanguagePlugin(path).compressProject(path);
     }
 
+    @Override
+    public void compressProject(Path path, OutputStream output)
+            throws NoLanguagePluginFoundException, IOException {
+        getLanguagePlugin(path).compressProject(path, output);
+    }
+
+    private synchronized ExerciseIndex getExerciseIndex(Path courseRoot) {
+        Path root = courseRoot.toAbsolutePath().normalize();
+        ExerciseIndex index = exerciseIndexes.get(root);
+        if (index == null) {
+            String indexName = Hashing.sha1().hashString(root.toString(), StandardCharsets.UTF_8)
+                    + ".json";
+            index = new ExerciseIndex(root, indexDirectory.resolve(indexName),
+                    new Function<Path, Optional<String>>() {
+                        @Override
+                        public Optional<String> apply(Path path) {
+                            Optional<ProjectType> projectType = ProjectType.detect(path);
+                            if (projectType.isPresent()) {
+                                return Optional.of(projectType.get().name());
+                            }
+                            return Optional.absent();
+                        }
+                    });
+            exerciseIndexes.put(root, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the cache directory of the current user: <tt>$XDG_CACHE_HOME</tt> if set,
+     * <tt>%LOCALAPPDATA%</tt> on Windows, and <tt>~/.cache</tt> otherwise. Unlike the temporary
+     * directory, it is not shared with the other users of the host.
+     */
+    private static Path userCacheDirectory() {
+        String cache = System.getenv("XDG_CACHE_HOME");
+        if (Strings.isNullOrEmpty(cache)
+                && System.getProperty("os.name", "").toLowerCase(Locale.ROOT)
+                        .startsWith("windows")) {
+            cache = System.getenv("LOCALAPPDATA");
+        }
+        if (Strings.isNullOrEmpty(cache)) {
+            return Paths.get(System.getProperty("user.home"), ".cache");
+        }
+        return Paths.get(cache);
+    }
+
     /**
      * Get language plugin for the given path.
      *
@@ -0,0 +1,88 @@
+package fi.helsinki.cs.tmc.langs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+public class BatchSchedulerTest {
+
+    private BatchScheduler<String> scheduler;
+    private List<SettableFuture<String>> started;
+
+    @Before
+    public void setUp() {
+        scheduler = new BatchScheduler<>(2);
+        started = new ArrayList<>();
+    }
+
+    private Callable<ListenableFuture<String>> task() {
+        return new Callable<ListenableFuture<String>>() {
+            @Override
+            public ListenableFuture<String> call() {
+                SettableFuture<String> run = SettableFuture.create();
+                started.add(run);
+                return run;
+            }
+        };
+    }
+
+    @Test
+    public void tasksBeyondLimitWaitUntilARunningTaskCompletes() throws Exception {
+        ListenableFuture<String> first = scheduler.submit("python", task());
+        scheduler.submit("python", task());
+        ListenableFuture<String> third = scheduler.submit("python", task());
+
+        assertEquals(2, started.size());
+
+        started.get(0).set("done");
+
+        assertEquals("done", first.get());
+        assertEquals(3, started.size());
+        assertFalse(third.isDone());
+    }
+
+    @Test
+    public void limitsAreSeparatePerKey() {
+        scheduler.setLimit("maven", 1);
+
+        scheduler.submit("maven", task());
+        scheduler.submit("maven", task());
+        scheduler.submit("python", task());
+
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void cancelledQueuedTaskIsNeverStarted() {
+        scheduler.setLimit("maven", 1);
+        scheduler.submit("maven", task());
+        ListenableFuture<String> queued = scheduler.submit("maven", task());
+
+        queued.cancel(false);
+        started.get(0).set("done");
+
+        assertEquals(1, started.size());
+    }
+
+    @Test
+    public void failingTaskReleasesItsSlot() {
+        scheduler.setLimit("maven", 1);
+        ListenableFuture<String> failing = scheduler.submit("maven", task());
+        scheduler.submit("maven", task());
+
+        started.get(0).setException(new RuntimeException("failed"));
+
+        assertTrue(failing.isDone());
+        assertEquals(2, started.size());
+    }
+}
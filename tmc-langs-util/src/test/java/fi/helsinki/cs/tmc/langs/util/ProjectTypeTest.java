@@ -1,17 +1,30 @@
 package fi.helsinki.cs.tmc.langs.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import fi.helsinki.cs.tmc.langs.domain.NoLanguagePluginFoundException;
 import fi.helsinki.cs.tmc.langs.java.ant.AntPlugin;
+import fi.helsinki.cs.tmc.langs.java.maven.MavenPlugin;
+import fi.helsinki.cs.tmc.langs.make.MakePlugin;
+import fi.helsinki.cs.tmc.langs.python3.Python3Plugin;
 import fi.helsinki.cs.tmc.langs.utils.TestUtils;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
 
 public class ProjectTypeTest {
 
@@ -46,4 +59,56 @@ public class ProjectTypeTest {
         exception.expectMessage("No suitable language plugin found.");
         ProjectType.getProjectType(TestUtils.getPath(getClass(), "dummy_project"));
     }
+
+    @Test
+    public void testDetectionIsUpdatedWhenDirectoryChanges() throws IOException {
+        Path project = Files.createTempDirectory("tmc-project-type");
+        try {
+            assertFalse(ProjectType.detect(project).isPresent());
+
+            Files.createFile(project.resolve("setup.py"));
+            Files.setLastModifiedTime(project, FileTime.fromMillis(
+                    Files.getLastModifiedTime(project).toMillis() + 2000));
+
+            assertEquals(Optional.of(ProjectType.PYTHON3), ProjectType.detect(project));
+        } finally {
+            TestUtils.removeDirRecursively(project);
+        }
+    }
+
+    @Test
+    public void testDetectionAgreesWithPluginsOnEveryMarker() throws IOException {
+        Map<ProjectType, List<Path>> markers = ImmutableMap.of(
+                ProjectType.JAVA_ANT, AntPlugin.EXERCISE_MARKERS,
+                ProjectType.JAVA_MAVEN, MavenPlugin.EXERCISE_MARKERS,
+                ProjectType.MAKEFILE, MakePlugin.EXERCISE_MARKERS,
+                ProjectType.PYTHON3, Python3Plugin.EXERCISE_MARKERS);
+        for (Map.Entry<ProjectType, List<Path>> entry : markers.entrySet()) {
+            for (Path marker : entry.getValue()) {
+                Path project = Files.createTempDirectory("tmc-project-type");
+                try {
+                    Files.createDirectories(project.resolve(marker).getParent());
+                    Files.createFile(project.resolve(marker));
+
+                    assertEquals(Optional.of(entry.getKey()), ProjectType.detect(project));
+                    assertTrue(entry.getKey().getLanguagePlugin().isExerciseTypeCorrect(project));
+                } finally {
+                    TestUtils.removeDirRecursively(project);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPythonProjectIsDetectedFromNestedMarker() throws IOException {
+        Path project = Files.createTempDirectory("tmc-project-type");
+        try {
+            Files.createDirectories(project.resolve("tmc"));
+            Files.createFile(project.resolve("tmc").resolve("__main__.py"));
+
+            assertEquals(Optional.of(ProjectType.PYTHON3), ProjectType.detect(project));
+        } finally {
+            TestUtils.removeDirRecursively(project);
+        }
+    }
 }